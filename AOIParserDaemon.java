@@ -0,0 +1,47 @@
+package parser;
+
+import java.io.File;
+
+/**
+ * Headless entry point for line servers without a display:
+ *
+ * <pre>java -cp AOIParser.jar parser.AOIParserDaemon /path/to/config.properties</pre>
+ *
+ * Nothing from AWT or Swing is loaded. Log lines go to stdout as well as the log
+ * file. On SIGTERM (or Ctrl+C) the engine stops taking new files and lets the
+ * ones already in progress finish before the JVM exits.
+ */
+public class AOIParserDaemon {
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: java -cp <classpath> parser.AOIParserDaemon <config file>");
+            System.exit(2);
+        }
+
+        File configFile = new File(args[0]);
+        if (!configFile.isFile()) {
+            System.err.println("Configuration file not found: " + configFile.getAbsolutePath());
+            System.exit(2);
+        }
+
+        AOIParserEngine engine = new AOIParserEngine(new AOIParserEngine.Listener() {
+            @Override
+            public void onLog(String message) {
+                System.out.println(message);
+            }
+
+            @Override
+            public void onError(String message) {
+                System.err.println(message);
+            }
+        });
+
+        Runtime.getRuntime().addShutdownHook(new Thread(engine::stop, "shutdown"));
+
+        // The processing thread keeps the JVM alive from here on
+        if (!engine.loadConfigFromFile(configFile)) {
+            System.exit(1);
+        }
+    }
+}
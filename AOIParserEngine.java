@@ -0,0 +1,1409 @@
+package parser;
+
+import java.io.*;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import javax.management.JMException;
+
+/**
+ * The CSV to GenericTester processing core, with no dependency on AWT or Swing.
+ * The Swing window ({@link AOIParser}) and the headless daemon
+ * ({@link AOIParserDaemon}) both drive one of these and receive its output
+ * through a {@link Listener}.
+ */
+class AOIParserEngine {
+
+    /**
+     * Receives what the engine wants to show. Called from engine threads.
+     */
+    interface Listener {
+        default void onLog(String message) {
+        }
+
+        default void onError(String message) {
+        }
+
+        default void onBoard(String serialNumber, String status, String program, String workorder, String side) {
+        }
+
+        default void onConfigLoaded(EngineConfig config) {
+        }
+    }
+
+    private static final long POLL_INTERVAL_MILLIS = 5000;
+    // Archive batches share one fsync
+    private static final int ARCHIVE_BATCH_SIZE = 64;
+
+    private final Listener listener;
+    private final CsvFieldScanner csvScanner = new CsvFieldScanner("Barcode", "Result", "Program Name");
+    // Swapped as a whole on reload; read it once per batch
+    private volatile EngineConfig config;
+    private volatile AsyncFileLogger fileLogger;
+    private boolean logEnable;
+    private volatile boolean stopProcessing = false;
+    private final CountDownLatch stopSignal = new CountDownLatch(1);
+    private volatile Thread processingThread;
+    private volatile List<MachineProfile> machines = Collections.emptyList();
+    private volatile RoundRobinQueue<MachineProfile, BoardJob> scheduled;
+    private SqlConnectionPool sqlPool;
+    private volatile SerialLookupCache lookupCache;
+    private volatile LookupBatcher lookupBatcher;
+    private volatile CircuitBreaker dbBreaker;
+    private volatile RecordJournal journal;
+    // Null when duplicate detection is off
+    private volatile DedupIndex dedupIndex;
+    private volatile Thread replayThread;
+    private volatile GenericTesterWriter xmlWriter;
+    private volatile XmlAggregator<BoardJob> aggregator;
+    // By backup folder, so machines sharing a folder append to the same segments
+    private final Map<Path, CsvArchive> archives = new ConcurrentHashMap<>();
+    // Replaced by a reload while files in the pipeline may still use them; closed on stop
+    private final List<AutoCloseable> retired = new ArrayList<>();
+    private ConfigFileWatcher configWatcher;
+    private volatile ProcessingPipeline<BoardJob> pipeline;
+    // Files queued or being worked on, so a rescan doesn't submit them twice
+    private final Set<String> inFlightFiles = ConcurrentHashMap.newKeySet();
+    private final EngineMetrics metrics = new EngineMetrics();
+    private MetricsHttpServer metricsServer;
+
+    AOIParserEngine(Listener listener) {
+        this.listener = listener;
+        metrics.bindGauges(inFlightFiles::size,
+                () -> lookupCache != null ? lookupCache.getHits() : 0,
+                () -> lookupCache != null ? lookupCache.getMisses() : 0);
+        metrics.bindJournalGauges(() -> journal != null ? journal.pending() : 0,
+                () -> dbBreaker != null && dbBreaker.getState() != CircuitBreaker.State.CLOSED);
+    }
+
+    EngineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Loads the configuration and starts processing. If the engine is already
+     * running, the new configuration is applied to it instead: pools, caches
+     * and pipeline stages are resized in place, only machines whose settings
+     * changed are restarted, and files already picked up finish under the
+     * settings they started with. Returns false if the file could not be
+     * loaded, in which case the running configuration stays in force; the
+     * reason has already been reported to the listener.
+     */
+    synchronized boolean loadConfigFromFile(File configFile) {
+        if (stopProcessing) {
+            return false;
+        }
+        EngineConfig previous = config;
+        try {
+            EngineConfig next = EngineConfig.load(configFile);
+            applyConfig(previous, next);
+            config = next;
+
+            if (logEnable) {
+                log("Configuration " + (previous == null ? "loaded" : "reloaded") + " successfully from: "
+                        + configFile.getAbsolutePath());
+                logConfiguration(next);
+            }
+
+            if (configWatcher == null) {
+                configWatcher = new ConfigFileWatcher(this::configFileChanged);
+            }
+            configWatcher.watch(configFile, next.configCheckMillis);
+
+            if (processingThread == null) {
+                // Start processing immediately since side selection is dynamic
+                startProcessing();
+            } else {
+                updateMachines(previous, next);
+            }
+            // Only once the engine runs on it, so the UI never shows settings it is not using
+            listener.onConfigLoaded(next);
+            return true;
+
+        } catch (IOException | IllegalArgumentException ex) {
+            if (fileLogger != null) {
+                log("Error loading configuration: " + ex.getMessage());
+            } else {
+                System.err.println("Error loading configuration: " + ex.getMessage());
+            }
+            reportError("Error loading configuration: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    private void configFileChanged(File configFile) {
+        log("Configuration file changed, reloading: " + configFile.getAbsolutePath());
+        loadConfigFromFile(configFile);
+    }
+
+    /**
+     * Brings every component in line with {@code next}, creating them on the
+     * first load. The journal and dedup index are opened before anything else
+     * changes, so if either fails the running configuration is untouched.
+     */
+    private void applyConfig(EngineConfig previous, EngineConfig next) throws IOException {
+        RecordJournal newJournal = null;
+        if (previous == null || !previous.journalPath.equals(next.journalPath)) {
+            newJournal = new RecordJournal(Paths.get(next.journalPath), next.journalSegmentBytes, this::log);
+        }
+        DedupIndex newDedupIndex = null;
+        if (dedupIndex == null && next.dedupRetentionMillis > 0) {
+            try {
+                newDedupIndex = new DedupIndex(Paths.get(next.dedupIndexPath), next.dedupIndexSlots,
+                        next.dedupRetentionMillis, this::log);
+            } catch (IOException e) {
+                if (newJournal != null) {
+                    newJournal.close();
+                }
+                throw e;
+            }
+        }
+
+        if (previous == null || !previous.sameLog(next)) {
+            openLog(next);
+        }
+
+        for (MachineProfile machine : next.machines) {
+            createDirectoryIfNotExists(machine.inputFolderPath);
+            createDirectoryIfNotExists(machine.outFolderPath);
+            createDirectoryIfNotExists(machine.backupFolderPath);
+        }
+
+        if (sqlPool == null) {
+            sqlPool = new SqlConnectionPool(next.sqlConStr, next.dbPoolMaxSize, next.dbPoolIdleTimeoutMillis,
+                    next.dbValidationTimeoutSeconds, next.dbBorrowTimeoutMillis, next.dbMaxBackoffMillis, this::log);
+            lookupCache = new SerialLookupCache(next.cacheMaxEntries, next.cacheTtlMillis, next.cachePrefetch);
+            dbBreaker = new CircuitBreaker("Database", next.dbCircuitFailureThreshold, next.dbCircuitOpenMillis,
+                    next.dbCircuitMaxOpenMillis, this::log);
+            lookupBatcher = new LookupBatcher(sqlPool, lookupCache, dbBreaker, next.lookupBatchSize,
+                    next.lookupBatchMaxDelayMillis, this::log);
+        } else {
+            if (previous.sameDatabase(next)) {
+                sqlPool.configure(next.dbPoolMaxSize, next.dbPoolIdleTimeoutMillis, next.dbValidationTimeoutSeconds,
+                        next.dbBorrowTimeoutMillis, next.dbMaxBackoffMillis);
+            } else {
+                // Lookups already out finish on the old pool, which then closes itself
+                retired.removeIf(r -> r instanceof SqlConnectionPool && ((SqlConnectionPool) r).isClosed());
+                sqlPool.retire();
+                retired.add(sqlPool);
+                sqlPool = new SqlConnectionPool(next.sqlConStr, next.dbPoolMaxSize, next.dbPoolIdleTimeoutMillis,
+                        next.dbValidationTimeoutSeconds, next.dbBorrowTimeoutMillis, next.dbMaxBackoffMillis,
+                        this::log);
+            }
+            lookupCache.configure(next.cacheMaxEntries, next.cacheTtlMillis, next.cachePrefetch);
+            dbBreaker.configure(next.dbCircuitFailureThreshold, next.dbCircuitOpenMillis, next.dbCircuitMaxOpenMillis);
+            lookupBatcher.configure(sqlPool, next.lookupBatchSize, next.lookupBatchMaxDelayMillis);
+        }
+
+        if (newJournal != null) {
+            RecordJournal old = journal;
+            journal = newJournal;
+            if (old != null) {
+                // Its replay thread sees the new journal and exits
+                retired.add(old);
+            }
+            if (processingThread != null) {
+                startReplay();
+            }
+        } else {
+            journal.setMaxSegmentBytes(next.journalSegmentBytes);
+        }
+        if (newDedupIndex != null) {
+            dedupIndex = newDedupIndex;
+        } else if (dedupIndex != null) {
+            dedupIndex.setRetentionMillis(next.dedupRetentionMillis);
+            if (!previous.dedupIndexPath.equals(next.dedupIndexPath) || previous.dedupIndexSlots != next.dedupIndexSlots) {
+                log("DedupIndexPath and DedupIndexSlots take effect after a restart.");
+            }
+        }
+
+        if (previous == null || previous.xmlSyncMode != next.xmlSyncMode) {
+            xmlWriter = new GenericTesterWriter(next.xmlSyncMode);
+        }
+        if (previous == null || !previous.sameAggregation(next)) {
+            // Boards with the same header share a file; their CSVs are archived once it is written
+            XmlAggregator<BoardJob> old = aggregator;
+            aggregator = next.xmlAggregateMaxBoards > 1 ? new XmlAggregator<>(xmlWriter, next.xmlAggregateMaxBoards,
+                    next.xmlAggregateWindowMillis, this::groupWritten, this::log) : null;
+            if (old != null) {
+                // Writes the groups it still holds
+                old.close();
+            }
+        }
+
+        if (next.isSegmentBackup()) {
+            for (MachineProfile machine : next.machines) {
+                archiveFor(machine.backupFolderPath, next);
+            }
+            for (CsvArchive archive : archives.values()) {
+                archive.setLimits(next.archiveSegmentMinutes, next.archiveSegmentBytes);
+            }
+        }
+
+        ProcessingPipeline<BoardJob> running = pipeline;
+        if (running != null) {
+            running.resize("parse", next.parseThreads, 1);
+            running.resize("enrich", next.enrichThreads, next.lookupBatch());
+            running.resize("emit", next.emitThreads, next.emitBatch());
+            running.resize("archive", next.archiveThreads, next.archiveBatch(ARCHIVE_BATCH_SIZE));
+            if (previous.pipelineQueueCapacity != next.pipelineQueueCapacity
+                    || previous.virtualThreads != next.virtualThreads) {
+                log("PipelineQueueCapacity and UseVirtualThreads take effect after a restart.");
+            }
+        }
+
+        List<String> machineNames = new ArrayList<>(next.machines.size());
+        for (MachineProfile machine : next.machines) {
+            machineNames.add(machine.name);
+        }
+        metrics.setMachines(machineNames);
+        if (previous == null || !previous.sameMetricsEndpoint(next)) {
+            startMetrics(next.metricsHttpBind, next.metricsHttpPort);
+        } else {
+            registerMBeans();
+        }
+    }
+
+    private CsvArchive archiveFor(String backupFolderPath, EngineConfig cfg) {
+        return archives.computeIfAbsent(Paths.get(backupFolderPath).toAbsolutePath().normalize(),
+                dir -> new CsvArchive(dir, cfg.archiveSegmentMinutes, cfg.archiveSegmentBytes));
+    }
+
+    /**
+     * Replaces the log file writer. Logging is turned off, and the reason
+     * reported, if the log directory is missing.
+     */
+    private void openLog(EngineConfig cfg) {
+        AsyncFileLogger old = fileLogger;
+        fileLogger = null;
+        if (old != null) {
+            old.close();
+        }
+
+        logEnable = cfg.logEnable;
+        if (logEnable) {
+            if (cfg.logDirPath != null) {
+                File logDir = new File(cfg.logDirPath);
+                if (!logDir.exists() || !logDir.isDirectory()) {
+                    logEnable = false;
+                    reportError("Log directory does not exist: " + cfg.logDirPath + ". Logging is disabled.");
+                } else {
+                    fileLogger = new AsyncFileLogger(logDir, cfg.logQueueCapacity, cfg.logMaxFileBytes,
+                            cfg.logOverflowPolicy);
+                }
+            } else {
+                logEnable = false;
+                reportError("'LogPath' is missing or empty in configuration. Logging is disabled.");
+            }
+        }
+    }
+
+    private void logConfiguration(EngineConfig cfg) {
+        log("Configuration Parameters:");
+        log("  Log Enabled: " + logEnable);
+        log("  Log Directory: " + cfg.logDirPath);
+        log("  Log File: " + fileLogger.currentFileName());
+        log("  Log Max File Size Bytes: " + cfg.logMaxFileBytes);
+        log("  Log Overflow Policy: " + cfg.logOverflowPolicy);
+        for (MachineProfile machine : cfg.machines) {
+            log("  Machine Name: " + machine.name);
+            log("    Input Folder Path: " + machine.inputFolderPath);
+            log("    Output Folder Path: " + machine.outFolderPath);
+            log("    Backup Folder Path: " + machine.backupFolderPath);
+            log("    Top Operation ID: " + machine.topOperationId);
+            log("    Bottom Operation ID: " + machine.bottomOperationId);
+            log("    Operation Duration: " + machine.operationDuration);
+            log("    Panel Array: " + machine.panelArray);
+        }
+        log("  XML Sync Mode: " + cfg.xmlSyncMode + (cfg.xmlSyncMode == GenericTesterWriter.SyncMode.Batch
+                ? " (up to " + cfg.xmlSyncBatchSize + " files)" : ""));
+        log("  Backup Mode: " + cfg.backupMode + (cfg.isSegmentBackup() ? " (" + cfg.archiveSegmentMinutes
+                + " min / " + cfg.archiveSegmentBytes / (1024 * 1024) + " MB segments)" : ""));
+        log("  XML Aggregation: " + (cfg.xmlAggregateMaxBoards > 1 ? "up to " + cfg.xmlAggregateMaxBoards
+                + " boards or " + cfg.xmlAggregateWindowMillis + " ms per file" : "off, one file per board"));
+        log("  SQL Connection String: " + cfg.sqlConStr);
+        log("  Ingestion Mode: " + cfg.ingestionMode);
+        log("  File Stable Millis: " + cfg.fileStableMillis);
+        log("  Rescan Interval Millis: " + cfg.rescanMillis);
+        log("  Catch-up Threshold/Batch Size/Max In Flight: " + cfg.catchUpThreshold + "/" + cfg.catchUpBatchSize
+                + "/" + cfg.catchUpMaxInFlight);
+        log("  DB Pool Max Size: " + cfg.dbPoolMaxSize);
+        log("  DB Pool Idle Timeout Millis: " + cfg.dbPoolIdleTimeoutMillis);
+        log("  Lookup Cache Max Entries: " + cfg.cacheMaxEntries);
+        log("  Lookup Cache TTL Millis: " + cfg.cacheTtlMillis);
+        log("  Lookup Prefetch Enabled: " + cfg.cachePrefetch);
+        log("  Lookup Batch Size: " + cfg.lookupBatchSize);
+        log("  Lookup Batch Max Delay Millis: " + cfg.lookupBatchMaxDelayMillis);
+        log("  DB Circuit Failure Threshold: " + cfg.dbCircuitFailureThreshold);
+        log("  DB Circuit Open Millis (initial/max): " + cfg.dbCircuitOpenMillis + "/" + cfg.dbCircuitMaxOpenMillis);
+        log("  Journal Path: " + cfg.journalPath + " (" + journal.pending() + " records waiting)");
+        log("  Journal Replay Interval Millis: " + cfg.journalReplayMillis);
+        log("  Dedup Index: " + (cfg.dedupRetentionMillis > 0 ? cfg.dedupIndexPath + " (" + cfg.dedupIndexSlots
+                + " slots, " + cfg.dedupRetentionMillis / 3600000 + " h retention)" : "disabled"));
+        log("  Pipeline Threads (parse/enrich/emit/archive): " + cfg.parseThreads + "/" + cfg.enrichThreads
+                + "/" + cfg.emitThreads + "/" + cfg.archiveThreads);
+        log("  Pipeline Queue Capacity: " + cfg.pipelineQueueCapacity);
+        log("  Use Virtual Threads: " + cfg.virtualThreads);
+        log("  Shutdown Drain Millis: " + cfg.drainMillis);
+        log("  Metrics HTTP Endpoint: " + (cfg.metricsHttpPort > 0
+                ? "http://" + cfg.metricsHttpBind + ":" + cfg.metricsHttpPort + "/metrics" : "disabled"));
+        log("  Config Reload Check Millis: " + (cfg.configCheckMillis > 0 ? cfg.configCheckMillis : "disabled"));
+        log("  UI Refresh Millis/Max Log Lines: " + cfg.uiRefreshMillis + "/" + cfg.uiMaxLogLines);
+    }
+
+    /**
+     * Registers the JMX beans and (re)starts the Prometheus endpoint. Neither is
+     * essential, so failures are only logged.
+     */
+    private void startMetrics(String bindAddress, int port) {
+        registerMBeans();
+
+        if (metricsServer != null) {
+            metricsServer.close();
+            metricsServer = null;
+        }
+        if (port > 0) {
+            try {
+                metricsServer = new MetricsHttpServer(bindAddress, port, metrics::toPrometheusText);
+            } catch (IOException e) {
+                log("Could not start metrics endpoint on " + bindAddress + ":" + port + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void registerMBeans() {
+        try {
+            metrics.registerMBeans();
+        } catch (JMException e) {
+            log("Could not register JMX metrics: " + e.getMessage());
+        }
+    }
+
+    private void startProcessing() {
+        EngineConfig cfg = config;
+        pipeline = new ProcessingPipeline<BoardJob>(cfg.virtualThreads, this::log, this::stageFailed)
+                .stage("parse", cfg.parseThreads, cfg.pipelineQueueCapacity, 1, this::parseStage)
+                .stage("enrich", cfg.enrichThreads, cfg.pipelineQueueCapacity, cfg.lookupBatch(), this::enrichStage)
+                .stage("emit", cfg.emitThreads, cfg.pipelineQueueCapacity, cfg.emitBatch(), this::emitStage)
+                .stage("archive", cfg.archiveThreads, cfg.pipelineQueueCapacity,
+                        cfg.archiveBatch(ARCHIVE_BATCH_SIZE), this::archiveStage);
+        scheduled = new RoundRobinQueue<>();
+        machines = new ArrayList<>(cfg.machines);
+        attachMachines(machines, cfg);
+
+        Thread csvThread = new Thread(this::CSVFunctionalTesting, "csv-processing");
+        processingThread = csvThread;
+        csvThread.start();
+        startReplay();
+    }
+
+    private void startReplay() {
+        RecordJournal replaying = journal;
+        Thread replay = new Thread(() -> replayJournal(replaying), "journal-replay");
+        replay.setDaemon(true);
+        replayThread = replay;
+        replay.start();
+    }
+
+    /**
+     * Gives the machines their metrics and archive under {@code cfg}.
+     */
+    private void attachMachines(List<MachineProfile> profiles, EngineConfig cfg) {
+        for (MachineProfile machine : profiles) {
+            machine.metrics = metrics.machine(machine.name);
+            machine.archive = cfg.isSegmentBackup() ? archiveFor(machine.backupFolderPath, cfg) : null;
+        }
+    }
+
+    /**
+     * Keeps running every machine whose profile and ingestion settings did not
+     * change, stops the threads of machines that were changed or removed, and
+     * starts the changed and added ones. Files the stopped machines already
+     * picked up still run to the end.
+     */
+    private void updateMachines(EngineConfig previous, EngineConfig next) {
+        List<MachineProfile> current = machines;
+        List<MachineProfile> updated = new ArrayList<>(next.machines.size());
+        List<MachineProfile> started = new ArrayList<>();
+        for (MachineProfile profile : next.machines) {
+            MachineProfile kept = null;
+            if (previous.sameIngestion(next)) {
+                for (MachineProfile running : current) {
+                    if (running.sameSettings(profile)) {
+                        kept = running;
+                    }
+                }
+            }
+            updated.add(kept != null ? kept : profile);
+            if (kept == null) {
+                started.add(profile);
+            }
+        }
+        attachMachines(updated, next);
+
+        for (MachineProfile running : current) {
+            if (!updated.contains(running)) {
+                running.retired = true;
+                BacklogDrainer drainer = running.drainer;
+                if (drainer != null) {
+                    drainer.requestPass();
+                }
+                log("Stopped picking up files for machine " + running.name + ".");
+            }
+        }
+        machines = updated;
+        for (MachineProfile machine : started) {
+            startMachine(machine);
+        }
+    }
+
+    /**
+     * Stops picking up new files, lets the files already in the pipeline finish
+     * (up to ShutdownDrainSeconds) and releases the database, cache and log file.
+     */
+    void stop() {
+        synchronized (this) {
+            // Waits for a reload in progress, and keeps later ones out
+            stopProcessing = true;
+        }
+        stopSignal.countDown();
+        if (configWatcher != null) {
+            configWatcher.close();
+        }
+        for (MachineProfile machine : machines) {
+            BacklogDrainer drainer = machine.drainer;
+            if (drainer != null) {
+                drainer.requestPass();
+            }
+        }
+
+        Thread csvThread = processingThread;
+        if (csvThread != null) {
+            try {
+                csvThread.join(config.drainMillis + 5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Thread replay = replayThread;
+        if (replay != null) {
+            try {
+                replay.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (lookupBatcher != null) {
+            lookupBatcher.close();
+        }
+        if (sqlPool != null) {
+            sqlPool.close();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (dedupIndex != null) {
+            dedupIndex.close();
+        }
+        for (CsvArchive archive : archives.values()) {
+            archive.close();
+        }
+        for (AutoCloseable resource : retired) {
+            try {
+                resource.close();
+            } catch (Exception ignored) {
+            }
+        }
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
+        metrics.unregisterMBeans();
+        log("Processing stopped.");
+        if (fileLogger != null) {
+            fileLogger.close();
+        }
+    }
+
+    private void CSVFunctionalTesting() {
+        pipeline.start();
+        RoundRobinQueue<MachineProfile, BoardJob> queue = scheduled;
+        for (MachineProfile machine : machines) {
+            startMachine(machine);
+        }
+
+        try {
+            dispatch(queue);
+        } finally {
+            for (MachineProfile machine : machines) {
+                for (Thread thread : machine.threads) {
+                    try {
+                        thread.join(5000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            // Picked up but never handed to the pipeline; left in the input folder
+            for (BoardJob job : queue.drain()) {
+                finishJob(job);
+            }
+            // Let files already in the pipeline finish before the thread exits
+            pipeline.shutdown(config.drainMillis);
+            XmlAggregator<BoardJob> grouping = aggregator;
+            if (grouping != null) {
+                grouping.close();
+            }
+        }
+    }
+
+    /**
+     * Starts the threads that pick up one machine's files: the folder watch for
+     * live files, if enabled, and the drainer for everything else, oldest first.
+     * They stop with the engine or when a reload retires the machine.
+     */
+    private void startMachine(MachineProfile machine) {
+        EngineConfig cfg = config;
+        Path folder = Paths.get(machine.inputFolderPath);
+        boolean watch = "Watch".equalsIgnoreCase(cfg.ingestionMode);
+        Consumer<String> machineLog = message -> log(machines.size() > 1 ? machine.name + ": " + message : message);
+        BooleanSupplier stopped = () -> stopProcessing || machine.retired;
+
+        BacklogDrainer drainer = new BacklogDrainer(folder, cfg.fileStableMillis,
+                watch ? cfg.rescanMillis : POLL_INTERVAL_MILLIS, cfg.catchUpThreshold, cfg.catchUpBatchSize,
+                cfg.catchUpMaxInFlight, file -> submit(machine, file, machine.drainer), machineLog);
+        machine.drainer = drainer;
+        machine.metrics.inputBacklog = drainer::waiting;
+        Thread backlogThread = new Thread(() -> drainer.run(stopped), "backlog-" + machine.name);
+        backlogThread.setDaemon(true);
+        machine.threads.add(backlogThread);
+        backlogThread.start();
+
+        if (watch) {
+            CsvFolderWatcher watcher = new CsvFolderWatcher(folder, cfg.fileStableMillis,
+                    files -> processCSVFiles(machine, files), drainer::requestPass, machineLog);
+            Thread watchThread = new Thread(() -> {
+                try {
+                    watcher.run(stopped);
+                } catch (IOException e) {
+                    machineLog.accept("Folder watch unavailable, falling back to polling: " + e.getMessage());
+                    drainer.setPassIntervalMillis(POLL_INTERVAL_MILLIS);
+                    drainer.requestPass();
+                }
+            }, "input-watch-" + machine.name);
+            watchThread.setDaemon(true);
+            machine.threads.add(watchThread);
+            watchThread.start();
+        }
+    }
+
+    /**
+     * Feeds the pipeline from the machine queues, one machine at a time in turn.
+     * Blocks while the pipeline is full, so files wait in their machine's queue
+     * rather than ahead of other machines' files.
+     */
+    private void dispatch(RoundRobinQueue<MachineProfile, BoardJob> queue) {
+        while (!stopProcessing) {
+            BoardJob job;
+            try {
+                job = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (job != null) {
+                    pipeline.submit(job);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IllegalStateException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Queues new files from a machine's folder watch, skipping ones that are
+     * already in the pipeline.
+     */
+    private void processCSVFiles(MachineProfile machine, List<File> inputFiles) {
+        for (File inputFile : inputFiles) {
+            submit(machine, inputFile, null);
+            if (stopProcessing || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Queues one file for its machine's turn unless it is already in the
+     * pipeline or has gone. Returns true if it was queued. Files from the
+     * backlog carry their drainer so it can be told when they are done.
+     */
+    boolean submit(MachineProfile machine, File inputFile, BacklogDrainer drainer) {
+        RoundRobinQueue<MachineProfile, BoardJob> queue = scheduled;
+        if (stopProcessing || queue == null || !inFlightFiles.add(inputFile.getAbsolutePath())) {
+            return false;
+        }
+        // Archived by the other path while this one was deciding
+        if (!inputFile.isFile()) {
+            inFlightFiles.remove(inputFile.getAbsolutePath());
+            return false;
+        }
+        BoardJob job = new BoardJob(machine, inputFile);
+        job.drainer = drainer;
+        machine.metrics.inFlight.incrementAndGet();
+        queue.add(machine, job);
+        return true;
+    }
+
+    /**
+     * Called when a job leaves the pipeline, archived or not.
+     */
+    private void finishJob(BoardJob job) {
+        // A job released after a stage failure may still reach the end of the pipeline
+        if (!job.finished.compareAndSet(false, true)) {
+            return;
+        }
+        inFlightFiles.remove(job.inputFile.getAbsolutePath());
+        job.machine.metrics.inFlight.decrementAndGet();
+        if (job.drainer != null) {
+            job.drainer.completed();
+        }
+    }
+
+    /**
+     * One CSV file on its way through the pipeline. Once {@code error} is set the
+     * remaining stages only archive the file.
+     */
+    private class BoardJob {
+        final MachineProfile machine;
+        final File inputFile;
+        final long submittedNanos = System.nanoTime();
+        BacklogDrainer drainer;
+        // Every block of a panel, or just the one board; dataRecord is the first
+        List<DataRecord> blocks;
+        DataRecord dataRecord;
+        // Checked against the dedup index, recorded once output exists; 0 if it was not consulted
+        long fingerprint;
+        // Already processed within the dedup retention; only archived
+        boolean duplicate;
+        // Parked in the journal until the database is back; nothing to emit now
+        boolean journaled;
+        List<CompletableFuture<SerialLookupCache.Lookup>> lookups;
+        Exception error;
+        final AtomicBoolean finished = new AtomicBoolean();
+
+        BoardJob(MachineProfile machine, File inputFile) {
+            this.machine = machine;
+            this.inputFile = inputFile;
+        }
+    }
+
+    /**
+     * Called with the batch a stage failed on unexpectedly. The CSV files stay
+     * in the input folder, to be picked up again.
+     */
+    private void stageFailed(List<BoardJob> jobs) {
+        for (BoardJob job : jobs) {
+            metrics.filesFailed.incrementAndGet();
+            job.machine.metrics.filesFailed.incrementAndGet();
+            log("Left input file in place after an unexpected error: " + job.inputFile.getAbsolutePath());
+            finishJob(job);
+        }
+    }
+
+    private List<BoardJob> parseStage(List<BoardJob> jobs) {
+        List<BoardJob> out = new ArrayList<>(jobs.size());
+        for (BoardJob job : jobs) {
+            log("Processing input file: " + job.inputFile.getAbsolutePath());
+            long start = System.nanoTime();
+
+            try {
+                List<DataRecord> blocks = job.machine.panelArray ? extractBlocksFromCSV(job.inputFile)
+                        : Collections.singletonList(extractDataFromCSV(job.inputFile));
+                DataRecord dataRecord = blocks.get(0);
+
+                // Set operationId based on side extracted from Program Name
+                String operationId;
+                if ("Bottom".equalsIgnoreCase(dataRecord.side)) {
+                    operationId = job.machine.bottomOperationId;
+                } else if ("TOP".equalsIgnoreCase(dataRecord.side)) {
+                    operationId = job.machine.topOperationId;
+                } else {
+                    metrics.unknownSideRejects.incrementAndGet();
+                    job.machine.metrics.unknownSideRejects.incrementAndGet();
+                    log("Unknown side detected in Program Name. Cannot determine operation ID.");
+                    logInUI("Unknown side detected in Program Name for SerialNumber: " + dataRecord.serialNumber);
+                    // Left in the input folder, as before
+                    finishJob(job);
+                    continue;
+                }
+                for (DataRecord block : blocks) {
+                    block.operationId = operationId;
+                }
+                job.blocks = blocks;
+                job.dataRecord = dataRecord;
+                skipIfDuplicate(job);
+
+            } catch (Exception ex) {
+                failCSVFile(job, ex);
+            }
+            metrics.stage("parse").recordSince(start);
+            out.add(job);
+        }
+        return out;
+    }
+
+    /**
+     * Looks the board's Barcode, Program and Result up in the dedup index and
+     * marks the job as a duplicate if the same result was processed within the
+     * retention period. A panel counts as a duplicate only if every block's
+     * Barcode and Result match. A result is only recorded once its XML file or
+     * journal entry exists, so one lost to a crash is processed again.
+     */
+    private void skipIfDuplicate(BoardJob job) {
+        DedupIndex index = dedupIndex;
+        // Stays open when a reload turns it off, in case the next one turns it back on
+        if (index == null || config.dedupRetentionMillis <= 0) {
+            return;
+        }
+        DataRecord dataRecord = job.dataRecord;
+        String[] fields = new String[1 + 2 * job.blocks.size()];
+        fields[0] = dataRecord.serialNumber;
+        fields[1] = dataRecord.program;
+        fields[2] = dataRecord.status;
+        for (int i = 1; i < job.blocks.size(); i++) {
+            fields[1 + 2 * i] = job.blocks.get(i).serialNumber;
+            fields[2 + 2 * i] = job.blocks.get(i).status;
+        }
+        job.fingerprint = DedupIndex.fingerprint(fields);
+        if (index.contains(job.fingerprint, System.currentTimeMillis())) {
+            job.duplicate = true;
+            metrics.duplicatesSkipped.incrementAndGet();
+            job.machine.metrics.duplicatesSkipped.incrementAndGet();
+            log("Skipping duplicate result for SerialNumber " + dataRecord.serialNumber + " (" + dataRecord.program
+                    + ", " + dataRecord.status + "), already processed: " + job.inputFile.getName());
+        }
+    }
+
+    /**
+     * Records the boards in the dedup index, now that their output exists.
+     */
+    private void recordFingerprints(List<BoardJob> jobs) {
+        DedupIndex index = dedupIndex;
+        if (index == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (BoardJob job : jobs) {
+            if (job.fingerprint != 0 && !job.duplicate) {
+                index.record(job.fingerprint, now);
+            }
+        }
+    }
+
+    /**
+     * Resolves the whole batch of records at once so cache misses share one
+     * query, with every block of a panel in the same one.
+     */
+    private List<BoardJob> enrichStage(List<BoardJob> jobs) {
+        long start = System.nanoTime();
+        LookupBatcher batcher = lookupBatcher;
+        for (BoardJob job : jobs) {
+            if (job.error == null && !job.duplicate) {
+                job.lookups = requestDatabaseDetails(batcher, job.blocks);
+            }
+        }
+        batcher.flush();
+
+        List<BoardJob> unresolved = new ArrayList<>();
+        for (BoardJob job : jobs) {
+            if (job.error == null && !job.duplicate) {
+                try {
+                    for (int i = 0; i < job.blocks.size(); i++) {
+                        fetchDatabaseDetails(job.blocks.get(i), job.lookups.get(i));
+                    }
+                } catch (SQLException ex) {
+                    // A query the database rejects would fail the same way on every replay
+                    if (SqlConnectionPool.isConnectionFailure(ex)) {
+                        unresolved.add(job);
+                    } else {
+                        failCSVFile(job, ex);
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    failCSVFile(job, ex);
+                }
+                // Each record waits for the whole batch
+                metrics.stage("enrich").recordSince(start);
+            }
+        }
+        journalRecords(unresolved);
+        return jobs;
+    }
+
+    /**
+     * Parks records whose lookup failed in the journal, so their CSV files can
+     * be archived now and their output written once the database is back.
+     */
+    private void journalRecords(List<BoardJob> jobs) {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        String dtTime = loopTimestamp();
+        List<RecordJournal.Entry> entries = new ArrayList<>(jobs.size());
+        for (BoardJob job : jobs) {
+            for (DataRecord block : job.blocks) {
+                entries.add(new RecordJournal.Entry(block, dtTime, job.inputFile.getName(), job.machine.name));
+            }
+        }
+        try {
+            journal.append(entries);
+        } catch (IOException ex) {
+            for (BoardJob job : jobs) {
+                failCSVFile(job, ex);
+            }
+            return;
+        }
+        recordFingerprints(jobs);
+        for (BoardJob job : jobs) {
+            job.journaled = true;
+            job.machine.metrics.recordsJournaled.addAndGet(job.blocks.size());
+            log("Database unavailable, journaled SerialNumber " + job.dataRecord.serialNumber
+                    + (job.blocks.size() > 1 ? " (" + job.blocks.size() + " blocks)" : "") + " for later output.");
+        }
+        metrics.recordsJournaled.addAndGet(entries.size());
+    }
+
+    /**
+     * Writes out journaled records whenever the database answers again. Exits
+     * when processing stops or the configuration is reloaded with a new journal.
+     */
+    private void replayJournal(RecordJournal replaying) {
+        while (!stopProcessing && journal == replaying) {
+            int replayed = 0;
+            try {
+                replayed = replayBatch(replaying);
+            } catch (IOException e) {
+                log("Journal replay failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (replayed == 0) {
+                try {
+                    if (stopSignal.await(config.journalReplayMillis, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns how many entries were taken off the journal, written out or
+     * dropped because the database rejected their lookup or their machine is
+     * no longer configured.
+     */
+    private int replayBatch(RecordJournal replaying) throws IOException, InterruptedException {
+        int max = config.lookupBatch();
+        List<RecordJournal.Entry> entries = replaying.readBatch(max);
+        // A panel with more blocks than a batch is read whole, so it still goes into one file
+        while (entries.size() == max && sameSourceFile(entries.get(0), entries.get(max - 1))) {
+            max *= 2;
+            entries = replaying.readBatch(max);
+        }
+        if (entries.isEmpty()) {
+            return 0;
+        }
+
+        LookupBatcher batcher = lookupBatcher;
+        List<CompletableFuture<SerialLookupCache.Lookup>> lookups = new ArrayList<>(entries.size());
+        for (RecordJournal.Entry entry : entries) {
+            lookups.add(requestDatabaseDetails(batcher, entry.record));
+        }
+        batcher.flush();
+
+        int replayed = 0;
+        int dropped = 0;
+        replay:
+        for (int i = 0; i < entries.size(); ) {
+            RecordJournal.Entry first = entries.get(i);
+            // The blocks of a panel were journaled together and go into one file again
+            int end = i + 1;
+            while (end < entries.size() && sameSourceFile(first, entries.get(end))) {
+                end++;
+            }
+            // May go on past the batch; the next read starts with it. The first
+            // group is always whole, see above.
+            if (end == entries.size() && entries.size() == max && i > 0) {
+                break;
+            }
+            List<DataRecord> boards = new ArrayList<>(end - i);
+            SQLException rejected = null;
+            for (int j = i; j < end; j++) {
+                try {
+                    fetchDatabaseDetails(entries.get(j).record, lookups.get(j));
+                } catch (SQLException e) {
+                    if (SqlConnectionPool.isConnectionFailure(e)) {
+                        // Still down; the rest stays in the journal for the next attempt
+                        break replay;
+                    }
+                    rejected = e;
+                }
+                boards.add(entries.get(j).record);
+            }
+            MachineProfile machine = machineNamed(first.machine);
+            if (machine == null) {
+                // Its output folder is unknown now, and it would hold up the rest
+                log("Dropping journaled records of " + first.sourceFile + ": machine " + first.machine
+                        + " is no longer configured.");
+            } else if (rejected != null) {
+                // Would fail the same way every time; dropped so it does not hold up the rest
+                log("Dropping journaled records of " + first.sourceFile + ": " + rejected.getMessage());
+            } else if (!createXMLFile(machine, boards, first.dtTime)) {
+                break;
+            }
+            for (int j = i; j < end; j++) {
+                replaying.markDone(entries.get(j));
+            }
+            if (machine == null || rejected != null) {
+                dropped += end - i;
+                i = end;
+                continue;
+            }
+            metrics.recordsReplayed.addAndGet(end - i);
+            machine.metrics.recordsReplayed.addAndGet(end - i);
+            replayed += end - i;
+            i = end;
+        }
+        if (replayed > 0) {
+            log("Replayed " + replayed + " journaled records, " + replaying.pending() + " still waiting.");
+        }
+        return replayed + dropped;
+    }
+
+    private static boolean sameSourceFile(RecordJournal.Entry a, RecordJournal.Entry b) {
+        return a.sourceFile.equals(b.sourceFile) && a.machine.equals(b.machine) && a.dtTime.equals(b.dtTime);
+    }
+
+    private List<BoardJob> emitStage(List<BoardJob> jobs) {
+        long start = System.nanoTime();
+        XmlAggregator<BoardJob> grouping = aggregator;
+        // Jobs held by the aggregator skip the archive stage; it archives them itself
+        List<BoardJob> out = grouping != null ? new ArrayList<>(jobs.size()) : jobs;
+        List<BoardJob> written = new ArrayList<>(jobs.size());
+        int grouped = 0;
+        try (GenericTesterWriter.Batch batch = xmlWriter.newBatch()) {
+            for (BoardJob job : jobs) {
+                if (job.error != null || job.journaled || job.duplicate) {
+                    if (grouping != null) {
+                        out.add(job);
+                    }
+                    continue;
+                }
+                for (DataRecord dataRecord : job.blocks) {
+                    log("Extracted values: SerialNumber = " + dataRecord.serialNumber + ", Status = "
+                            + dataRecord.status + ", Program = " + dataRecord.program + ", Side = "
+                            + dataRecord.side + ", Sequence = " + dataRecord.sequence + ", WorkOrderDetail = " + dataRecord.workOrderDetail);
+
+                    listener.onBoard(dataRecord.serialNumber, dataRecord.status, dataRecord.program,
+                            dataRecord.workOrderDetail, dataRecord.side);
+                }
+                String dtTime = loopTimestamp();
+
+                if (grouping != null) {
+                    // Its file is covered by the group now, so the drainer need not wait for it
+                    if (job.drainer != null) {
+                        job.drainer.completed();
+                        job.drainer = null;
+                    }
+                    if (grouping.add(job.machine, job.blocks, dtTime, job)) {
+                        grouped++;
+                        continue;
+                    }
+                    // Closed by a reload in the meantime; written on its own instead
+                    out.add(job);
+                }
+
+                try {
+                    // One BoardTestResult per block
+                    batch.add(job.machine.outDir, job.blocks, Collections.nCopies(job.blocks.size(), dtTime),
+                            job.machine.operationDuration);
+                    written.add(job);
+                } catch (IOException ex) {
+                    xmlFileFailed(job.machine, ex);
+                }
+            }
+            try {
+                for (Path xmlFile : batch.commit()) {
+                    log("XML file created: " + xmlFile.toAbsolutePath());
+                }
+                recordFingerprints(written);
+            } catch (IOException ex) {
+                // Nothing of this batch was renamed into place after the failure
+                xmlFilesFailed(written, ex);
+            }
+        }
+        // Every board in the batch waited for the whole of it
+        for (int i = 0; i < written.size() + grouped; i++) {
+            metrics.stage("emit").recordSince(start);
+        }
+        return out;
+    }
+
+    /**
+     * Called by the aggregator once the file for a group of boards has been
+     * written, or could not be. Only now are their CSV files archived.
+     */
+    private void groupWritten(List<BoardJob> jobs, Path xmlFile, IOException error) {
+        if (error == null) {
+            int boards = 0;
+            for (BoardJob job : jobs) {
+                boards += job.blocks.size();
+            }
+            log("XML file created: " + xmlFile.toAbsolutePath() + " (" + boards + " boards)");
+            recordFingerprints(jobs);
+        } else {
+            xmlFilesFailed(jobs, error);
+        }
+        archiveStage(jobs);
+    }
+
+    private List<BoardJob> archiveStage(List<BoardJob> jobs) {
+        long start = System.nanoTime();
+        archiveInputFiles(jobs);
+        for (BoardJob job : jobs) {
+            finishJob(job);
+            metrics.stage("archive").recordSince(start);
+            metrics.stage("file").recordSince(job.submittedNanos);
+            job.machine.metrics.filesProcessed.incrementAndGet();
+            job.machine.metrics.fileLatency.recordSince(job.submittedNanos);
+
+            if (metrics.fileProcessed() % 500 == 0) {
+                log(lookupCache.statsSummary(), false);
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Appends the batch's CSV files to their backup folders' archive segments
+     * and deletes them from the input folder once the segment is on disk.
+     * Files that could not be archived stay where they are. Files of machines
+     * without an archive are moved to the backup folder one by one.
+     */
+    private void archiveInputFiles(List<BoardJob> jobs) {
+        Map<CsvArchive, List<CsvArchive.Item>> byArchive = new LinkedHashMap<>();
+        Map<CsvArchive, String> folders = new LinkedHashMap<>();
+        for (BoardJob job : jobs) {
+            CsvArchive archive = job.machine.archive;
+            if (archive == null) {
+                moveFileToBackup(job.machine, job.inputFile);
+                continue;
+            }
+            String serialNumber = job.dataRecord != null ? job.dataRecord.serialNumber : null;
+            byArchive.computeIfAbsent(archive, a -> new ArrayList<>())
+                    .add(new CsvArchive.Item(job.inputFile, serialNumber));
+            folders.putIfAbsent(archive, job.machine.backupFolderPath);
+        }
+
+        for (Map.Entry<CsvArchive, List<CsvArchive.Item>> entry : byArchive.entrySet()) {
+            Path segment;
+            try {
+                segment = entry.getKey().append(entry.getValue());
+            } catch (IOException e) {
+                log("Failed to archive input files to " + folders.get(entry.getKey()) + ". Error: " + e.getMessage());
+                e.printStackTrace();
+                continue;
+            }
+            for (CsvArchive.Item item : entry.getValue()) {
+                if (!item.archived) {
+                    log("Failed to archive input file: " + item.file.getAbsolutePath() + ". Error: "
+                            + item.error.getMessage());
+                    continue;
+                }
+                try {
+                    Files.delete(item.file.toPath());
+                    log("Archived input file to " + segment.toAbsolutePath() + ": " + item.file.getName());
+                } catch (IOException e) {
+                    log("Archived input file but could not delete it: " + item.file.getAbsolutePath() + ". Error: "
+                            + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void failCSVFile(BoardJob job, Exception ex) {
+        job.error = ex;
+        metrics.filesFailed.incrementAndGet();
+        job.machine.metrics.filesFailed.incrementAndGet();
+        log("Error processing file " + job.inputFile.getName() + ": " + ex.getMessage());
+        logInUI("Error processing file: " + job.inputFile.getName() + ". Error occurred during processing.");
+        ex.printStackTrace();
+    }
+
+    static class DataRecord {
+        String serialNumber;
+        String status;
+        String program;
+        String sequence;
+        String workOrderDetail;
+        String side;
+        String operationId;
+    }
+
+    DataRecord extractDataFromCSV(File inputFile) throws Exception {
+        DataRecord dataRecord = new DataRecord();
+        String[] values = csvScanner.scan(inputFile.toPath());
+
+        dataRecord.serialNumber = values[0];
+        setResult(dataRecord, values[1]);
+        setProgram(dataRecord, values[2]);
+
+        if (dataRecord.serialNumber == null || dataRecord.status == null || dataRecord.program == null) {
+            throw new Exception("One or more required fields are missing in the CSV file.");
+        }
+
+        return dataRecord;
+    }
+
+    /**
+     * Reads a panel CSV, which has a Barcode and a Result row per block. The
+     * n-th Barcode goes with the n-th Result, and every block shares the
+     * Program Name. Unlike a single board, the whole file is read.
+     */
+    List<DataRecord> extractBlocksFromCSV(File inputFile) throws Exception {
+        List<List<String>> values = csvScanner.scanAll(inputFile.toPath());
+        List<String> barcodes = values.get(0);
+        List<String> results = values.get(1);
+        List<String> programs = values.get(2);
+
+        if (barcodes.isEmpty() || results.isEmpty() || programs.isEmpty()) {
+            throw new Exception("One or more required fields are missing in the CSV file.");
+        }
+        if (barcodes.size() != results.size()) {
+            throw new Exception("Panel CSV has " + barcodes.size() + " Barcode rows but " + results.size()
+                    + " Result rows.");
+        }
+
+        List<DataRecord> blocks = new ArrayList<>(barcodes.size());
+        for (int i = 0; i < barcodes.size(); i++) {
+            DataRecord block = new DataRecord();
+            block.serialNumber = barcodes.get(i);
+            setResult(block, results.get(i));
+            setProgram(block, programs.get(0));
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    private static void setResult(DataRecord dataRecord, String result) {
+        if (result != null) {
+            if ("Good".equalsIgnoreCase(result)) {
+                dataRecord.status = "PASS";
+            } else if ("NG".equalsIgnoreCase(result)) {
+                dataRecord.status = "FAIL";
+            } else {
+                dataRecord.status = result;
+            }
+        }
+    }
+
+    private static void setProgram(DataRecord dataRecord, String programName) {
+        if (programName != null) {
+            dataRecord.program = programName;
+            if (programName.toUpperCase().contains("BOT")) dataRecord.side = "Bottom";
+            else if (programName.toUpperCase().contains("TOP")) dataRecord.side = "TOP";
+        }
+    }
+
+    private CompletableFuture<SerialLookupCache.Lookup> requestDatabaseDetails(LookupBatcher batcher,
+            DataRecord dataRecord) {
+        SerialLookupCache.Lookup lookup = lookupCache.getIfPresent(dataRecord.serialNumber);
+        if (lookup != null) {
+            return CompletableFuture.completedFuture(lookup);
+        }
+        return batcher.submit(dataRecord.serialNumber);
+    }
+
+    /**
+     * Starts the lookups for the boards of one file. Those the cache cannot
+     * answer go to the batcher together, so a panel costs one query.
+     */
+    private List<CompletableFuture<SerialLookupCache.Lookup>> requestDatabaseDetails(LookupBatcher batcher,
+            List<DataRecord> boards) {
+        if (boards.size() == 1) {
+            return Collections.singletonList(requestDatabaseDetails(batcher, boards.get(0)));
+        }
+        List<CompletableFuture<SerialLookupCache.Lookup>> lookups = new ArrayList<>(boards.size());
+        List<String> missed = new ArrayList<>();
+        for (DataRecord board : boards) {
+            SerialLookupCache.Lookup lookup = lookupCache.getIfPresent(board.serialNumber);
+            lookups.add(lookup != null ? CompletableFuture.completedFuture(lookup) : null);
+            if (lookup == null) {
+                missed.add(board.serialNumber);
+            }
+        }
+        if (!missed.isEmpty()) {
+            Iterator<CompletableFuture<SerialLookupCache.Lookup>> pending = batcher.submitAll(missed).iterator();
+            for (int i = 0; i < lookups.size(); i++) {
+                if (lookups.get(i) == null) {
+                    lookups.set(i, pending.next());
+                }
+            }
+        }
+        return lookups;
+    }
+
+    private void fetchDatabaseDetails(DataRecord dataRecord, CompletableFuture<SerialLookupCache.Lookup> pending)
+            throws SQLException, InterruptedException {
+        SerialLookupCache.Lookup lookup;
+        try {
+            lookup = pending.get();
+        } catch (ExecutionException e) {
+            SQLException cause = e.getCause() instanceof SQLException
+                    ? (SQLException) e.getCause() : new SQLException(e.getCause());
+            // Not a new error, the breaker is holding calls back after earlier ones
+            if (!(cause instanceof CircuitBreaker.OpenException)) {
+                metrics.dbErrors.incrementAndGet();
+                log("SQL Error fetching details: " + cause.getMessage());
+            }
+            throw cause;
+        }
+
+        if (lookup != null) {
+            dataRecord.workOrderDetail = lookup.orderNumber;
+            dataRecord.sequence = lookup.blockNo;
+            log("Fetched WorkOrder: " + dataRecord.workOrderDetail + ", Sequence: " + dataRecord.sequence);
+        } else {
+            log("No data found for SerialNumber: " + dataRecord.serialNumber);
+        }
+    }
+
+    private static String loopTimestamp() {
+        return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date());
+    }
+
+    private void logInUI(String message) {
+        listener.onLog(message);
+        log(message, false);
+    }
+
+    /**
+     * Writes one file with a BoardTestResult per board, all tested at
+     * {@code dtTime}.
+     */
+    boolean createXMLFile(MachineProfile machine, List<DataRecord> boards, String dtTime) {
+        try (GenericTesterWriter.Batch batch = xmlWriter.newBatch()) {
+            batch.add(machine.outDir, boards, Collections.nCopies(boards.size(), dtTime), machine.operationDuration);
+            Path xmlFile = batch.commit().get(0);
+            log("XML file created: " + xmlFile.toAbsolutePath()
+                    + (boards.size() > 1 ? " (" + boards.size() + " boards)" : ""));
+            return true;
+        } catch (IOException ex) {
+            xmlFileFailed(machine, ex);
+            return false;
+        }
+    }
+
+    private void xmlFilesFailed(List<BoardJob> jobs, IOException ex) {
+        metrics.xmlErrors.addAndGet(jobs.size());
+        for (BoardJob job : jobs) {
+            job.machine.metrics.xmlErrors.incrementAndGet();
+        }
+        log("Error creating XML file: " + ex.getMessage());
+        ex.printStackTrace();
+    }
+
+    private void xmlFileFailed(MachineProfile machine, IOException ex) {
+        metrics.xmlErrors.incrementAndGet();
+        machine.metrics.xmlErrors.incrementAndGet();
+        log("Error creating XML file: " + ex.getMessage());
+        ex.printStackTrace();
+    }
+
+    /**
+     * Returns the configured machine of that name, or null if there is none.
+     */
+    MachineProfile machineNamed(String name) {
+        List<MachineProfile> current = machines;
+        for (MachineProfile machine : current) {
+            if (machine.name.equals(name)) {
+                return machine;
+            }
+        }
+        return null;
+    }
+
+    private void moveFileToBackup(MachineProfile machine, File inputFile) {
+        String name = inputFile.getName();
+        File backupFile = new File(machine.backupFolderPath, name);
+        try {
+            // Keep an earlier file of the same name rather than overwrite it
+            for (int n = 1; ; n++) {
+                try {
+                    Files.move(inputFile.toPath(), backupFile.toPath());
+                    break;
+                } catch (FileAlreadyExistsException e) {
+                    int dot = name.lastIndexOf('.');
+                    String numbered = dot > 0 ? name.substring(0, dot) + "_" + n + name.substring(dot) : name + "_" + n;
+                    backupFile = new File(machine.backupFolderPath, numbered);
+                }
+            }
+            log("Moved input file to backup: " + backupFile.getAbsolutePath());
+        } catch (IOException e) {
+            log("Failed to move input file to backup: " + inputFile.getAbsolutePath() + ". Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void createDirectoryIfNotExists(String path) {
+        if (path != null && !path.trim().isEmpty()) {
+            try {
+                Files.createDirectories(Paths.get(path));
+                System.out.println("Ensured directory exists: " + path);
+            } catch (IOException e) {
+                System.err.println("Failed to create directory: " + path);
+                reportError("Failed to create directory: " + path);
+            }
+        }
+    }
+
+    void log(String message) {
+        log(message, true);
+    }
+
+    private void log(String message, boolean showInUI) {
+        AsyncFileLogger logger = fileLogger;
+        if (logger != null) {
+            logger.log(message);
+        }
+        if (showInUI) {
+            listener.onLog(message);
+        }
+    }
+
+    private void reportError(String message) {
+        listener.onError(message);
+    }
+}
@@ -0,0 +1,219 @@
+package parser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Log file writer that never blocks the caller.
+ *
+ * Messages go into a bounded in-memory buffer and a single writer thread, which
+ * keeps the file open, writes them out in batches and flushes once per batch.
+ * The file rolls over to a new Log_yyyyMMdd.txt at midnight and to
+ * Log_yyyyMMdd_N.txt once it reaches {@code maxFileBytes}. When the buffer is
+ * full, either the new message (DropNewest) or the oldest buffered one
+ * (DropOldest) is discarded and the number of dropped messages is written to the
+ * log once there is room again.
+ */
+class AsyncFileLogger implements AutoCloseable {
+
+    enum OverflowPolicy {
+        DropNewest, DropOldest
+    }
+
+    private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter LINE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static class Entry {
+        final long time;
+        final String message;
+
+        Entry(long time, String message) {
+            this.time = time;
+            this.message = message;
+        }
+    }
+
+    private final File logDir;
+    private final long maxFileBytes;
+    private final OverflowPolicy overflowPolicy;
+    private final ArrayBlockingQueue<Entry> buffer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean closed;
+
+    // Owned by the writer thread
+    private Writer writer;
+    private LocalDate fileDate;
+    private int fileIndex;
+    private long fileBytes;
+    private long lastSecond = -1;
+    private String lastSecondText;
+
+    AsyncFileLogger(File logDir, int capacity, long maxFileBytes, OverflowPolicy overflowPolicy) {
+        this.logDir = logDir;
+        this.maxFileBytes = maxFileBytes;
+        this.overflowPolicy = overflowPolicy;
+        this.buffer = new ArrayBlockingQueue<>(Math.max(16, capacity));
+
+        writerThread = new Thread(this::run, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues a message for the log file. Never blocks.
+     */
+    void log(String message) {
+        if (closed) {
+            return;
+        }
+        Entry entry = new Entry(System.currentTimeMillis(), message);
+        if (buffer.offer(entry)) {
+            return;
+        }
+        if (overflowPolicy == OverflowPolicy.DropOldest) {
+            buffer.poll();
+            dropped.incrementAndGet();
+            if (buffer.offer(entry)) {
+                return;
+            }
+        }
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Name of the file currently being written, for display only.
+     */
+    String currentFileName() {
+        LocalDate date = fileDate != null ? fileDate : LocalDate.now();
+        return fileName(date, fileIndex);
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(256);
+        while (true) {
+            try {
+                Entry first = buffer.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed) {
+                        break;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, 4095);
+                write(batch);
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                System.err.println("Error writing to log file: " + e.getMessage());
+                closeWriter();
+            } finally {
+                batch.clear();
+            }
+        }
+
+        // Write out whatever is still buffered before going away
+        buffer.drainTo(batch);
+        try {
+            write(batch);
+        } catch (IOException e) {
+            System.err.println("Error writing to log file: " + e.getMessage());
+        }
+        closeWriter();
+    }
+
+    private void write(List<Entry> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long droppedSoFar = dropped.getAndSet(0);
+        if (droppedSoFar > 0) {
+            writeLine(System.currentTimeMillis(), droppedSoFar + " log messages dropped, log buffer was full.");
+        }
+        for (Entry entry : batch) {
+            writeLine(entry.time, entry.message);
+        }
+        writer.flush();
+    }
+
+    private void writeLine(long time, String message) throws IOException {
+        LocalDate date = Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()).toLocalDate();
+        if (writer == null || !date.equals(fileDate)) {
+            openFile(date, 0);
+        } else if (maxFileBytes > 0 && fileBytes >= maxFileBytes) {
+            openFile(date, fileIndex + 1);
+        }
+
+        String line = timestamp(time) + " : " + message + "\n";
+        writer.write(line);
+        // Close enough for rollover purposes; log lines are almost always ASCII
+        fileBytes += line.length();
+    }
+
+    private String timestamp(long time) {
+        long second = time / 1000;
+        if (second != lastSecond) {
+            lastSecond = second;
+            lastSecondText = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()).format(LINE_TIME);
+        }
+        return lastSecondText;
+    }
+
+    private void openFile(LocalDate date, int index) throws IOException {
+        closeWriter();
+        // After a restart, carry on in the last part of the day that still has room
+        File file = new File(logDir, fileName(date, index));
+        while (maxFileBytes > 0 && file.length() >= maxFileBytes) {
+            index++;
+            file = new File(logDir, fileName(date, index));
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8),
+                64 * 1024);
+        fileDate = date;
+        fileIndex = index;
+        fileBytes = file.length();
+    }
+
+    private static String fileName(LocalDate date, int index) {
+        return "Log_" + date.format(FILE_DATE) + (index == 0 ? "" : "_" + index) + ".txt";
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * Writes out everything still buffered and closes the file.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
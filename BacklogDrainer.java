@@ -0,0 +1,296 @@
+package parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Picks up CSV files that are sitting in the input folder rather than arriving
+ * live: everything there at startup, files the folder watch missed, and the
+ * pile that builds up during a network or MES outage.
+ *
+ * Each pass streams the folder with a DirectoryStream and keeps only the
+ * {@code batchSize} oldest files by modification time, so memory stays bounded
+ * however many files are waiting. They are handed over oldest first, but never
+ * more than {@code maxInFlight} at a time; fresh boards from the watch go
+ * straight into the pipeline and only ever queue behind that many backlog files.
+ * While more than {@code catchUpThreshold} files are waiting, progress and an
+ * estimated time to finish are logged every 30 seconds.
+ */
+class BacklogDrainer {
+
+    private static final long PROGRESS_INTERVAL_MILLIS = 30_000;
+
+    private final Path folder;
+    private final long stableMillis;
+    private final int catchUpThreshold;
+    private final int batchSize;
+    private final Semaphore inFlight;
+    private final Predicate<File> submitter;
+    private final Consumer<String> logger;
+
+    private volatile long passIntervalMillis;
+    private final Object passLock = new Object();
+    private boolean passRequested;
+    // Files the last pass left alone because they were still being written
+    private boolean skippedFresh;
+
+    // Catch-up progress
+    private boolean catchingUp;
+    private long catchUpStarted;
+    private long nextProgressReport;
+    private int lastPassTotal;
+    private int dispatchedThisPass;
+    private long dispatchedSinceStart;
+    private final AtomicLong completed = new AtomicLong();
+    private long completedAtStart;
+    // Files the current pass found and has not handed over yet
+    private volatile int waiting;
+
+    private static class Candidate {
+        final Path path;
+        final long modified;
+
+        Candidate(Path path, long modified) {
+            this.path = path;
+            this.modified = modified;
+        }
+    }
+
+    private static final Comparator<Candidate> OLDEST_FIRST =
+            Comparator.<Candidate>comparingLong(c -> c.modified).thenComparing(c -> c.path);
+
+    /**
+     * @param submitter hands a file to the pipeline and returns false if it was
+     *                  not taken (already in flight, gone, or shutting down).
+     *                  Every file it takes must later be reported through
+     *                  {@link #completed()}.
+     */
+    BacklogDrainer(Path folder, long stableMillis, long passIntervalMillis, int catchUpThreshold,
+                   int batchSize, int maxInFlight, Predicate<File> submitter, Consumer<String> logger) {
+        this.folder = folder;
+        this.stableMillis = stableMillis;
+        this.passIntervalMillis = passIntervalMillis;
+        this.catchUpThreshold = catchUpThreshold;
+        this.batchSize = Math.max(1, batchSize);
+        this.inFlight = new Semaphore(Math.max(1, maxInFlight));
+        this.submitter = submitter;
+        this.logger = logger;
+    }
+
+    /**
+     * Runs passes until {@code stopped} returns true. A pass that could not hold
+     * every waiting file is followed straight away by the next one, unless it
+     * could hand over none of its files because they were all locked or already
+     * in flight. Otherwise the next pass waits for the pass interval or
+     * {@link #requestPass()}.
+     */
+    void run(BooleanSupplier stopped) {
+        while (!stopped.getAsBoolean()) {
+            List<Candidate> batch = new ArrayList<>();
+            int total = scan(batch, stopped);
+            startPass(total);
+
+            long now = System.currentTimeMillis();
+            for (Candidate candidate : batch) {
+                if (stopped.getAsBoolean()) {
+                    return;
+                }
+                // Same rule as the folder watch: recent files must not be held open
+                if (now - candidate.modified < stableMillis * 10 && !CsvFolderWatcher.isUnlocked(candidate.path)) {
+                    continue;
+                }
+                if (!acquire(stopped)) {
+                    return;
+                }
+                if (submitter.test(candidate.path.toFile())) {
+                    dispatchedThisPass++;
+                    dispatchedSinceStart++;
+                } else {
+                    inFlight.release();
+                }
+                // Taken now, or already in flight or gone
+                waiting--;
+                reportProgress();
+            }
+
+            if (total <= batch.size()) {
+                finishCatchUp();
+                waitForNextPass(skippedFresh);
+            } else if (dispatchedThisPass == 0) {
+                // Rescanning a large folder at once would find the same files
+                waitForNextPass(true);
+            }
+        }
+    }
+
+    /**
+     * Called once a file taken by the submitter has left the pipeline.
+     */
+    void completed() {
+        completed.incrementAndGet();
+        inFlight.release();
+    }
+
+    /**
+     * Starts the next pass now instead of after the pass interval.
+     */
+    void requestPass() {
+        synchronized (passLock) {
+            passRequested = true;
+            passLock.notifyAll();
+        }
+    }
+
+    /**
+     * Files in the input folder that the current pass has not handed over yet,
+     * including those beyond its batch. Files still being written are not counted.
+     */
+    int waiting() {
+        return Math.max(0, waiting);
+    }
+
+    void setPassIntervalMillis(long passIntervalMillis) {
+        this.passIntervalMillis = passIntervalMillis;
+    }
+
+    /**
+     * Collects the oldest files that are no longer being written into
+     * {@code batch}, oldest first, and returns how many such files there are.
+     */
+    private int scan(List<Candidate> batch, BooleanSupplier stopped) {
+        // Newest at the head, so it is the one pushed out when an older file turns up
+        PriorityQueue<Candidate> oldest = new PriorityQueue<>(Math.min(batchSize, 1024) + 1, OLDEST_FIRST.reversed());
+        int total = 0;
+        long now = System.currentTimeMillis();
+        skippedFresh = false;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder,
+                p -> CsvFolderWatcher.isCsv(p.getFileName()))) {
+            for (Path path : stream) {
+                if (stopped.getAsBoolean()) {
+                    break;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+                long modified = attrs.lastModifiedTime().toMillis();
+                if (!attrs.isRegularFile()) {
+                    continue;
+                }
+                if (now - modified < stableMillis) {
+                    // Still being written; the watch or the next pass gets it
+                    skippedFresh = true;
+                    continue;
+                }
+
+                total++;
+                if (oldest.size() < batchSize) {
+                    oldest.add(new Candidate(path, modified));
+                } else if (modified < oldest.peek().modified) {
+                    oldest.poll();
+                    oldest.add(new Candidate(path, modified));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.accept("Failed to scan input folder: " + e.getMessage());
+        }
+
+        batch.addAll(oldest);
+        batch.sort(OLDEST_FIRST);
+        return total;
+    }
+
+    private boolean acquire(BooleanSupplier stopped) {
+        try {
+            while (!inFlight.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                if (stopped.getAsBoolean()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void startPass(int total) {
+        lastPassTotal = total;
+        dispatchedThisPass = 0;
+        waiting = total;
+        if (!catchingUp && total > catchUpThreshold) {
+            catchingUp = true;
+            catchUpStarted = System.currentTimeMillis();
+            nextProgressReport = catchUpStarted + PROGRESS_INTERVAL_MILLIS;
+            completedAtStart = completed.get();
+            dispatchedSinceStart = 0;
+            logger.accept("Catch-up mode: " + total + " CSV files waiting in input folder, processing oldest first.");
+        }
+    }
+
+    private void reportProgress() {
+        long now = System.currentTimeMillis();
+        if (!catchingUp || now < nextProgressReport) {
+            return;
+        }
+        nextProgressReport = now + PROGRESS_INTERVAL_MILLIS;
+
+        long done = completed.get() - completedAtStart;
+        long remaining = Math.max(0, lastPassTotal - dispatchedThisPass);
+        double perSecond = done * 1000.0 / Math.max(1, now - catchUpStarted);
+        String eta = perSecond > 0 ? formatDuration((long) (remaining / perSecond * 1000)) : "unknown";
+        logger.accept(String.format("Catch-up progress: %d files done, about %d waiting, %.1f files/s, ETA %s",
+                done, remaining, perSecond, eta));
+    }
+
+    private void finishCatchUp() {
+        if (catchingUp) {
+            catchingUp = false;
+            logger.accept("Catch-up finished: " + dispatchedSinceStart + " backlog files handed over in "
+                    + formatDuration(System.currentTimeMillis() - catchUpStarted) + ".");
+        }
+    }
+
+    /**
+     * Waits for the pass interval, or only until files still being written
+     * have had time to settle if {@code soon}.
+     */
+    private void waitForNextPass(boolean soon) {
+        synchronized (passLock) {
+            long interval = soon ? Math.min(passIntervalMillis, Math.max(1, stableMillis)) : passIntervalMillis;
+            long deadline = System.currentTimeMillis() + interval;
+            long remaining;
+            while (!passRequested && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    passLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            passRequested = false;
+        }
+    }
+
+    private static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
@@ -0,0 +1,116 @@
+package parser;
+
+import java.sql.SQLTransientConnectionException;
+import java.util.function.Consumer;
+
+/**
+ * Stops calls to the database for a while after it has failed repeatedly, so
+ * callers fail at once instead of each waiting out connection and query
+ * timeouts.
+ *
+ * After {@code failureThreshold} failures in a row the breaker opens for
+ * {@code openMillis}. The first call after that is let through as a trial: if it
+ * succeeds the breaker closes, if it fails the breaker opens again for twice as
+ * long, up to {@code maxOpenMillis}.
+ */
+class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Thrown in place of a call the breaker did not let through. Carries the
+     * same SQLState as a failed connection attempt.
+     */
+    static class OpenException extends SQLTransientConnectionException {
+        private static final long serialVersionUID = 1L;
+
+        OpenException(String name) {
+            super(name + " circuit is open, not attempting the call.", SqlConnectionPool.CONNECTION_FAILURE);
+        }
+    }
+
+    private final String name;
+    private int failureThreshold;
+    private long openMillis;
+    private long maxOpenMillis;
+    private final Consumer<String> logger;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long currentOpenMillis;
+    private long openUntil;
+
+    CircuitBreaker(String name, int failureThreshold, long openMillis, long maxOpenMillis, Consumer<String> logger) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = Math.max(1, openMillis);
+        this.maxOpenMillis = Math.max(this.openMillis, maxOpenMillis);
+        this.logger = logger;
+        this.currentOpenMillis = this.openMillis;
+    }
+
+    /**
+     * Returns true if a call may go ahead. Every call let through must be
+     * followed by {@link #recordSuccess()} or {@link #recordFailure()}.
+     */
+    synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() >= openUntil) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                // A trial call is already out
+                return false;
+        }
+    }
+
+    synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.accept(name + " is reachable again, resuming calls.");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        currentOpenMillis = openMillis;
+    }
+
+    synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            currentOpenMillis = Math.min(currentOpenMillis * 2, maxOpenMillis);
+            open();
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + currentOpenMillis;
+        logger.accept(name + " failed " + consecutiveFailures + " times in a row, not calling it for "
+                + currentOpenMillis / 1000 + " s.");
+    }
+
+    /**
+     * Applies new limits. An open breaker keeps its current wait; the new
+     * ones apply from the next time it opens.
+     */
+    synchronized void configure(int failureThreshold, long openMillis, long maxOpenMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = Math.max(1, openMillis);
+        this.maxOpenMillis = Math.max(this.openMillis, maxOpenMillis);
+        if (state == State.CLOSED) {
+            currentOpenMillis = this.openMillis;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,100 @@
+package parser;
+
+import java.io.File;
+import java.util.function.Consumer;
+
+/**
+ * Watches the configuration file and asks for a reload once it has changed and
+ * then stayed the same for one more check, so a file an editor is still saving
+ * is not read halfway. Compares the file's size and modification time instead
+ * of using a WatchService, which also works for a file on a network share and
+ * for editors that save by replacing the file.
+ */
+class ConfigFileWatcher implements AutoCloseable {
+
+    private final Consumer<File> reload;
+    private final Thread checker;
+
+    private File file;
+    private long intervalMillis;
+    private long seenModified;
+    private long seenSize;
+    private boolean changed;
+    private boolean closed;
+
+    ConfigFileWatcher(Consumer<File> reload) {
+        this.reload = reload;
+        checker = new Thread(this::run, "config-watch");
+        checker.setDaemon(true);
+        checker.start();
+    }
+
+    /**
+     * Watches {@code file} from now on, checking every {@code intervalMillis};
+     * 0 stops watching. The file as it is now counts as loaded.
+     */
+    synchronized void watch(File file, long intervalMillis) {
+        this.file = file;
+        this.intervalMillis = intervalMillis;
+        seenModified = file.lastModified();
+        seenSize = file.length();
+        changed = false;
+        notifyAll();
+    }
+
+    private void run() {
+        while (true) {
+            File target;
+            synchronized (this) {
+                try {
+                    while (!closed && (file == null || intervalMillis <= 0)) {
+                        wait();
+                    }
+                    if (!closed) {
+                        wait(intervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+                if (file == null || intervalMillis <= 0) {
+                    continue;
+                }
+
+                target = file;
+                long modified = target.lastModified();
+                long size = target.length();
+                // Missing for a moment while an editor replaces it
+                if (modified == 0) {
+                    continue;
+                }
+                if (modified != seenModified || size != seenSize) {
+                    seenModified = modified;
+                    seenSize = size;
+                    changed = true;
+                    continue;
+                }
+                if (!changed) {
+                    continue;
+                }
+                changed = false;
+            }
+            reload.accept(target);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            checker.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
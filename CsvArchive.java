@@ -0,0 +1,408 @@
+package parser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archives processed CSV files by appending them to rolling compressed
+ * segments in the backup folder, instead of keeping one file per board there.
+ *
+ * A segment, archive-yyyyMMdd-HHmm.tar.gz, takes the files archived during
+ * {@code segmentMinutes} (a -N suffix is added if it reaches
+ * {@code maxSegmentBytes} first). It is a series of gzip members, each holding
+ * the tar entry of one CSV file, so the whole segment extracts with
+ * {@code tar -xzf} and a single file can be read by decompressing just its
+ * member. A .idx file next to the segment lists the serial number, file name,
+ * offset and length of every member. There is no index across segments:
+ * {@link #find} reads every .idx file in the folder, so a lookup costs time in
+ * proportion to the whole archive (roughly one index line per board ever
+ * archived). That suits an occasional restore but nothing on the processing
+ * path.
+ *
+ * {@link #append} forces the segment and its index to disk before it returns,
+ * so the caller may then delete the input files. When a segment is opened
+ * again after a crash, anything after its last indexed member is cut off.
+ */
+class CsvArchive implements AutoCloseable {
+
+    private static final String SEGMENT_PREFIX = "archive-";
+    private static final String SEGMENT_SUFFIX = ".tar.gz";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final DateTimeFormatter PERIOD_FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmm").withZone(ZoneId.systemDefault());
+    private static final int BLOCK = 512;
+
+    /**
+     * One CSV file to archive, with the serial number to index it under
+     * (null if the file could not be parsed). {@code archived} is set once it
+     * is safely in a segment.
+     */
+    static class Item {
+        final File file;
+        final String serialNumber;
+        boolean archived;
+        IOException error;
+
+        Item(File file, String serialNumber) {
+            this.file = file;
+            this.serialNumber = serialNumber;
+        }
+    }
+
+    /**
+     * Where an archived file is, as read from an index.
+     */
+    static class Location {
+        final Path segment;
+        final String serialNumber;
+        final String fileName;
+        final long offset;
+        final int length;
+
+        Location(Path segment, String serialNumber, String fileName, long offset, int length) {
+            this.segment = segment;
+            this.serialNumber = serialNumber;
+            this.fileName = fileName;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final Path dir;
+    private long segmentMillis;
+    private long maxSegmentBytes;
+
+    private final ByteArrayOutputStream member = new ByteArrayOutputStream(16 * 1024);
+    private String period;
+    private int sequence;
+    private Path segmentPath;
+    private FileChannel segment;
+    private FileChannel index;
+
+    CsvArchive(Path dir, long segmentMinutes, long maxSegmentBytes) {
+        this.dir = dir;
+        this.segmentMillis = Math.max(1, segmentMinutes) * 60_000;
+        this.maxSegmentBytes = Math.max(1024 * 1024, maxSegmentBytes);
+    }
+
+    /**
+     * Appends the files to the current segment and forces it and its index to
+     * disk, then marks them archived. Returns the segment they went into. A
+     * file that cannot be read is skipped with its {@code error} set; if
+     * writing the segment fails, it is cut back to where it was and none of
+     * the files count as archived.
+     */
+    synchronized Path append(List<Item> items) throws IOException {
+        long now = System.currentTimeMillis();
+        openSegment(PERIOD_FORMAT.format(Instant.ofEpochMilli(now - now % segmentMillis)));
+
+        long segmentStart = segment.size();
+        long indexStart = index.size();
+        try {
+            StringBuilder lines = new StringBuilder(items.size() * 48);
+            long offset = segmentStart;
+            List<Item> written = new ArrayList<>(items.size());
+            for (Item item : items) {
+                byte[] content;
+                try {
+                    content = Files.readAllBytes(item.file.toPath());
+                } catch (IOException e) {
+                    item.error = e;
+                    continue;
+                }
+                byte[] compressed = compress(item.file.getName(), item.file.lastModified(), content);
+                writeFully(segment, ByteBuffer.wrap(compressed), offset);
+                lines.append(clean(item.serialNumber)).append('\t').append(clean(item.file.getName())).append('\t')
+                        .append(offset).append('\t').append(compressed.length).append('\n');
+                offset += compressed.length;
+                written.add(item);
+            }
+            writeFully(index, ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8)), indexStart);
+            segment.force(false);
+            index.force(false);
+            for (Item item : written) {
+                item.archived = true;
+            }
+        } catch (IOException e) {
+            try {
+                segment.truncate(segmentStart);
+                index.truncate(indexStart);
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+        return segmentPath;
+    }
+
+    /**
+     * Changes how long and how big segments get. The current segment is kept
+     * until it would have rolled under the new limits.
+     */
+    synchronized void setLimits(long segmentMinutes, long maxSegmentBytes) {
+        this.segmentMillis = Math.max(1, segmentMinutes) * 60_000;
+        this.maxSegmentBytes = Math.max(1024 * 1024, maxSegmentBytes);
+    }
+
+    /**
+     * Closes the current segment. The next {@link #append} opens one again.
+     */
+    @Override
+    public synchronized void close() {
+        closeSegment();
+    }
+
+    /**
+     * Finds every archived file in {@code dir} whose serial number or file name
+     * is {@code key}, newest segment first. Scans every index in {@code dir};
+     * serial numbers don't follow the segment order, so no segment can be
+     * skipped.
+     */
+    static List<Location> find(Path dir, String key) throws IOException {
+        List<Path> indexes = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + INDEX_SUFFIX)) {
+            for (Path path : stream) {
+                indexes.add(path);
+            }
+        }
+        indexes.sort((a, b) -> compareSegmentNames(b.getFileName().toString(), a.getFileName().toString()));
+
+        List<Location> found = new ArrayList<>();
+        for (Path indexPath : indexes) {
+            String name = indexPath.getFileName().toString();
+            Path segmentPath = indexPath.resolveSibling(
+                    name.substring(0, name.length() - INDEX_SUFFIX.length()) + SEGMENT_SUFFIX);
+            try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // Most lines don't mention the key; only split those that do
+                    if (!line.contains(key)) {
+                        continue;
+                    }
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length == 4 && (fields[0].equals(key) || fields[1].equals(key))) {
+                        found.add(new Location(segmentPath, fields[0], fields[1], Long.parseLong(fields[2]),
+                                Integer.parseInt(fields[3])));
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reads the original contents of an archived file.
+     */
+    static byte[] read(Location location) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate(location.length);
+        try (FileChannel channel = FileChannel.open(location.segment, StandardOpenOption.READ)) {
+            while (compressed.hasRemaining()) {
+                if (channel.read(compressed, location.offset + compressed.position()) < 0) {
+                    throw new IOException("Archive segment is shorter than its index: " + location.segment);
+                }
+            }
+        }
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.array()))) {
+            byte[] header = in.readNBytes(BLOCK);
+            if (header.length == BLOCK && header[156] == 'L') {
+                // GNU long name entry ahead of the real one
+                in.readNBytes(blocks(octal(header, 124, 12)) * BLOCK);
+                header = in.readNBytes(BLOCK);
+            }
+            if (header.length != BLOCK) {
+                throw new IOException("Archive entry is truncated: " + location.fileName);
+            }
+            return in.readNBytes((int) octal(header, 124, 12));
+        }
+    }
+
+    private void openSegment(String currentPeriod) throws IOException {
+        if (segment != null && currentPeriod.equals(period) && segment.size() < maxSegmentBytes) {
+            return;
+        }
+        if (segment != null && currentPeriod.equals(period)) {
+            closeSegment();
+            sequence++;
+        } else {
+            closeSegment();
+            period = currentPeriod;
+            // Carry on with the last segment of this period from before a restart
+            sequence = 0;
+            while (Files.exists(dir.resolve(segmentName(sequence + 1) + SEGMENT_SUFFIX))) {
+                sequence++;
+            }
+        }
+
+        Files.createDirectories(dir);
+        while (true) {
+            segmentPath = dir.resolve(segmentName(sequence) + SEGMENT_SUFFIX);
+            Path indexPath = dir.resolve(segmentName(sequence) + INDEX_SUFFIX);
+            segment = FileChannel.open(segmentPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            recover();
+            if (segment.size() < maxSegmentBytes) {
+                return;
+            }
+            closeSegment();
+            sequence++;
+        }
+    }
+
+    /**
+     * Cuts the index back to its last complete line and the segment back to
+     * the end of the last member that line describes.
+     */
+    private void recover() throws IOException {
+        ByteBuffer lines = ByteBuffer.allocate((int) index.size());
+        while (lines.hasRemaining() && index.read(lines, lines.position()) >= 0) {
+        }
+        byte[] bytes = lines.array();
+        int validIndex = bytes.length;
+        while (validIndex > 0 && bytes[validIndex - 1] != '\n') {
+            validIndex--;
+        }
+        long validSegment = 0;
+        if (validIndex > 0) {
+            int lineStart = validIndex - 1;
+            while (lineStart > 0 && bytes[lineStart - 1] != '\n') {
+                lineStart--;
+            }
+            String[] fields = new String(bytes, lineStart, validIndex - 1 - lineStart, StandardCharsets.UTF_8)
+                    .split("\t", -1);
+            validSegment = Long.parseLong(fields[2]) + Integer.parseInt(fields[3]);
+        }
+        if (index.size() > validIndex) {
+            index.truncate(validIndex);
+        }
+        if (segment.size() > validSegment) {
+            segment.truncate(validSegment);
+        }
+    }
+
+    private void closeSegment() {
+        for (FileChannel channel : new FileChannel[]{segment, index}) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        segment = null;
+        index = null;
+    }
+
+    private String segmentName(int n) {
+        return SEGMENT_PREFIX + period + (n > 0 ? "-" + n : "");
+    }
+
+    /**
+     * Orders segment names by period, then by sequence number.
+     */
+    private static int compareSegmentNames(String a, String b) {
+        int periodEnd = SEGMENT_PREFIX.length() + 13;
+        int byPeriod = a.substring(0, periodEnd).compareTo(b.substring(0, periodEnd));
+        return byPeriod != 0 ? byPeriod : Integer.compare(sequenceOf(a), sequenceOf(b));
+    }
+
+    private static int sequenceOf(String name) {
+        String rest = name.substring(SEGMENT_PREFIX.length() + 13, name.indexOf('.'));
+        return rest.isEmpty() ? 0 : Integer.parseInt(rest.substring(1));
+    }
+
+    /**
+     * Compresses one tar entry (header, content and padding) into its own gzip
+     * member.
+     */
+    private byte[] compress(String name, long modified, byte[] content) throws IOException {
+        member.reset();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(member, 8192)) {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if (nameBytes.length > 100) {
+                gzip.write(header("././@LongLink", nameBytes.length + 1, 0, (byte) 'L'));
+                gzip.write(nameBytes);
+                gzip.write(new byte[blocks(nameBytes.length + 1) * BLOCK - nameBytes.length]);
+            }
+            gzip.write(header(name, content.length, modified / 1000, (byte) '0'));
+            gzip.write(content);
+            gzip.write(new byte[blocks(content.length) * BLOCK - content.length]);
+        }
+        return member.toByteArray();
+    }
+
+    private static byte[] header(String name, long size, long mtimeSeconds, byte type) {
+        byte[] h = new byte[BLOCK];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, h, 0, Math.min(100, nameBytes.length));
+        putOctal(h, 100, 8, 0644);
+        putOctal(h, 108, 8, 0);
+        putOctal(h, 116, 8, 0);
+        putOctal(h, 124, 12, size);
+        putOctal(h, 136, 12, mtimeSeconds);
+        h[156] = type;
+        System.arraycopy(("ustar\0" + "00").getBytes(StandardCharsets.US_ASCII), 0, h, 257, 8);
+        // The checksum is computed with its own field as spaces
+        for (int i = 148; i < 156; i++) {
+            h[i] = ' ';
+        }
+        long sum = 0;
+        for (byte b : h) {
+            sum += b & 0xFF;
+        }
+        putOctal(h, 148, 7, sum);
+        return h;
+    }
+
+    private static void putOctal(byte[] h, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        int pad = length - 1 - digits.length();
+        for (int i = 0; i < length - 1; i++) {
+            h[offset + i] = (byte) (i < pad ? '0' : digits.charAt(i - pad));
+        }
+        h[offset + length - 1] = 0;
+    }
+
+    private static long octal(byte[] h, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length && h[i] >= '0' && h[i] <= '7'; i++) {
+            value = value * 8 + (h[i] - '0');
+        }
+        return value;
+    }
+
+    private static int blocks(long bytes) {
+        return (int) ((bytes + BLOCK - 1) / BLOCK);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static String clean(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
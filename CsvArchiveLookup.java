@@ -0,0 +1,44 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Restores archived CSV files from a backup folder written in Segment mode:
+ *
+ * <pre>java -cp AOIParser.jar parser.CsvArchiveLookup &lt;backup folder&gt; &lt;serial number or file name&gt; [target folder]</pre>
+ *
+ * Every archived copy is written to the target folder (default: the current
+ * one), newest first; later copies of the same name get a numbered suffix.
+ */
+public class CsvArchiveLookup {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: java -cp <classpath> parser.CsvArchiveLookup <backup folder> "
+                    + "<serial number or file name> [target folder]");
+            System.exit(2);
+        }
+
+        Path target = Paths.get(args.length == 3 ? args[2] : ".");
+        List<CsvArchive.Location> found = CsvArchive.find(Paths.get(args[0]), args[1]);
+        if (found.isEmpty()) {
+            System.err.println("Not found in archive: " + args[1]);
+            System.exit(1);
+        }
+
+        Files.createDirectories(target);
+        for (CsvArchive.Location location : found) {
+            Path out = target.resolve(location.fileName);
+            for (int n = 1; Files.exists(out); n++) {
+                out = target.resolve(location.fileName + "." + n);
+            }
+            Files.write(out, CsvArchive.read(location));
+            System.out.println("Restored " + out + " from " + location.segment.getFileName()
+                    + (location.serialNumber.isEmpty() ? "" : " (SerialNumber " + location.serialNumber + ")"));
+        }
+    }
+}
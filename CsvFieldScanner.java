@@ -0,0 +1,203 @@
+package parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pulls the values of a few known keys out of an AOI "key,value,..." CSV without
+ * splitting every line.
+ *
+ * The file is read in chunks into a reused byte buffer and keys are compared
+ * directly against the line bytes; only matched values are turned into Strings.
+ * Reading stops as soon as every key has been seen, so the per-component defect
+ * rows at the end of large exports are never read. Keys and values are trimmed
+ * and lines are split on \n, \r or \r\n, the same as BufferedReader.readLine and
+ * String.trim, and values are decoded with the platform charset like FileReader.
+ *
+ * {@link #scanAll} reads the whole file instead and keeps every value of a key
+ * that repeats, for panel exports that have a Barcode and Result row per block.
+ */
+class CsvFieldScanner {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[][] keys;
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+    /**
+     * Receives the value of a wanted key. Returns true to stop reading.
+     */
+    private interface Match {
+        boolean found(int key, String value);
+    }
+
+    CsvFieldScanner(String... keys) {
+        this.keys = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            this.keys[i] = keys[i].getBytes(charset);
+        }
+    }
+
+    /**
+     * Returns the value of each key, in the order the keys were given, or null
+     * for keys that do not appear in the file. If a key repeats before all keys
+     * have been found, the later value wins. Once all have been found reading
+     * stops, so a key repeated after that keeps the value it had, where reading
+     * every line would have taken the last one. AOI exports give each key once,
+     * in the header ahead of the defect rows; use {@link #scanAll} for files that
+     * repeat them.
+     */
+    String[] scan(Path file) throws IOException {
+        String[] values = new String[keys.length];
+        int[] remaining = {keys.length};
+        read(file, (key, value) -> {
+            if (values[key] == null) {
+                remaining[0]--;
+            }
+            values[key] = value;
+            return remaining[0] == 0;
+        });
+        return values;
+    }
+
+    /**
+     * Returns every value of each key, in the order the keys were given, with
+     * the values of a key in the order they appear in the file. A key that
+     * does not appear has an empty list.
+     */
+    List<List<String>> scanAll(Path file) throws IOException {
+        List<List<String>> values = new ArrayList<>(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            values.add(new ArrayList<>(1));
+        }
+        read(file, (key, value) -> {
+            values.get(key).add(value);
+            return false;
+        });
+        return values;
+    }
+
+    private void read(Path file, Match match) throws IOException {
+        byte[] buf = buffers.get();
+        int len = 0;
+        int lineStart = 0;
+        boolean skipLF = false;
+
+        try (InputStream in = Files.newInputStream(file)) {
+            while (true) {
+                if (len == buf.length) {
+                    if (lineStart > 0) {
+                        // Move the unfinished line to the front
+                        System.arraycopy(buf, lineStart, buf, 0, len - lineStart);
+                        len -= lineStart;
+                        lineStart = 0;
+                    } else {
+                        // A single line longer than the buffer
+                        byte[] bigger = new byte[buf.length * 2];
+                        System.arraycopy(buf, 0, bigger, 0, len);
+                        buf = bigger;
+                        buffers.set(buf);
+                    }
+                }
+
+                int scanFrom = len;
+                int read = in.read(buf, len, buf.length - len);
+                if (read < 0) {
+                    break;
+                }
+                len += read;
+
+                for (int i = scanFrom; i < len; i++) {
+                    byte b = buf[i];
+                    if (skipLF) {
+                        skipLF = false;
+                        if (b == '\n') {
+                            lineStart = i + 1;
+                            continue;
+                        }
+                    }
+                    if (b == '\n' || b == '\r') {
+                        if (matchLine(buf, lineStart, i, match)) {
+                            return;
+                        }
+                        skipLF = b == '\r';
+                        lineStart = i + 1;
+                    }
+                }
+            }
+
+            // Last line without a line terminator
+            if (lineStart < len) {
+                matchLine(buf, lineStart, len, match);
+            }
+        }
+    }
+
+    /**
+     * Hands the value to {@code match} if the line's key is wanted. Returns
+     * true if reading should stop.
+     */
+    private boolean matchLine(byte[] buf, int start, int end, Match match) {
+        int comma = indexOf(buf, start, end, (byte) ',');
+        if (comma < 0) {
+            return false;
+        }
+
+        int keyStart = trimStart(buf, start, comma);
+        int keyEnd = trimEnd(buf, keyStart, comma);
+        for (int k = 0; k < keys.length; k++) {
+            if (regionEquals(buf, keyStart, keyEnd, keys[k])) {
+                int valueEnd = indexOf(buf, comma + 1, end, (byte) ',');
+                if (valueEnd < 0) {
+                    valueEnd = end;
+                }
+                int vs = trimStart(buf, comma + 1, valueEnd);
+                int ve = trimEnd(buf, vs, valueEnd);
+                return match.found(k, new String(buf, vs, ve - vs, charset));
+            }
+        }
+        return false;
+    }
+
+    private static int indexOf(byte[] buf, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Same rule as String.trim: anything up to and including space
+    private static int trimStart(byte[] buf, int from, int to) {
+        while (from < to && (buf[from] & 0xFF) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(byte[] buf, int from, int to) {
+        while (to > from && (buf[to - 1] & 0xFF) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    private static boolean regionEquals(byte[] buf, int from, int to, byte[] key) {
+        if (to - from != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buf[from + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,176 @@
+package parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the input folder for new CSV files and hands them to the handler once
+ * the AOI has finished writing them. Files that become ready in the same pass
+ * are handed over together so their database lookups can be batched.
+ *
+ * A file counts as fully written when its size and modification time have not
+ * changed for {@code stableMillis} and it can be locked for writing. Only
+ * files announced by events are tracked here; files already in the folder, and
+ * any the WatchService drops (overflow, network shares), are left to the
+ * {@link BacklogDrainer}, which is asked for an immediate pass on overflow.
+ */
+class CsvFolderWatcher {
+
+    private final Path folder;
+    private final long stableMillis;
+    private final Consumer<List<File>> handler;
+    private final Runnable rescan;
+    private final Consumer<String> logger;
+
+    // Files seen but not yet stable, in arrival order
+    private final Map<Path, Candidate> pending = new LinkedHashMap<>();
+
+    private static class Candidate {
+        long size;
+        long modified;
+        long stableSince;
+    }
+
+    CsvFolderWatcher(Path folder, long stableMillis, Consumer<List<File>> handler,
+                     Runnable rescan, Consumer<String> logger) {
+        this.folder = folder;
+        this.stableMillis = stableMillis;
+        this.handler = handler;
+        this.rescan = rescan;
+        this.logger = logger;
+    }
+
+    /**
+     * Runs until {@code stopped} returns true. Throws IOException if the folder
+     * cannot be registered with the WatchService so the caller can fall back to polling.
+     */
+    void run(BooleanSupplier stopped) throws IOException {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            folder.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+            logger.accept("Watching input folder for CSV files: " + folder.toAbsolutePath());
+            // Files that arrived before the watch was registered have no events
+            rescan.run();
+
+            while (!stopped.getAsBoolean()) {
+                long wait = pending.isEmpty() ? 1000 : Math.max(1, stableMillis / 2);
+
+                WatchKey key;
+                try {
+                    key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            logger.accept("Watch events overflowed. Rescanning input folder.");
+                            rescan.run();
+                            continue;
+                        }
+                        Path name = (Path) event.context();
+                        if (isCsv(name)) {
+                            track(folder.resolve(name));
+                        }
+                    }
+                    if (!key.reset()) {
+                        throw new IOException("Input folder is no longer accessible: " + folder.toAbsolutePath());
+                    }
+                }
+
+                dispatchStableFiles(stopped);
+            }
+        }
+    }
+
+    private void track(Path path) {
+        if (!pending.containsKey(path)) {
+            Candidate candidate = new Candidate();
+            candidate.size = -1;
+            pending.put(path, candidate);
+        }
+    }
+
+    private void dispatchStableFiles(BooleanSupplier stopped) {
+        long now = System.currentTimeMillis();
+        List<File> ready = new ArrayList<>();
+        Iterator<Map.Entry<Path, Candidate>> it = pending.entrySet().iterator();
+
+        while (it.hasNext() && !stopped.getAsBoolean()) {
+            Map.Entry<Path, Candidate> entry = it.next();
+            Path path = entry.getKey();
+            Candidate candidate = entry.getValue();
+
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // Removed or renamed before we got to it
+                it.remove();
+                continue;
+            }
+
+            long size = attrs.size();
+            long modified = attrs.lastModifiedTime().toMillis();
+            if (size != candidate.size || modified != candidate.modified) {
+                candidate.size = size;
+                candidate.modified = modified;
+                candidate.stableSince = now;
+                continue;
+            }
+
+            long stableFor = now - candidate.stableSince;
+            if (stableFor < stableMillis) {
+                continue;
+            }
+            // The writer may still hold the file open. Stop insisting on the lock
+            // after a while so read-only shares do not block the file forever.
+            if (stableFor < stableMillis * 10 && !isUnlocked(path)) {
+                continue;
+            }
+
+            it.remove();
+            ready.add(path.toFile());
+        }
+
+        if (!ready.isEmpty()) {
+            handler.accept(ready);
+        }
+    }
+
+    static boolean isUnlocked(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            return lock != null;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    static boolean isCsv(Path name) {
+        return name != null && name.toString().toLowerCase().endsWith(".csv");
+    }
+}
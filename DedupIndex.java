@@ -0,0 +1,175 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Remembers the fingerprints of recently processed board results in a
+ * memory-mapped file, so a result that arrives again, re-exported by the AOI
+ * station or dropped in a second time by an operator, is recognised without a
+ * database lookup and without producing a second MES record.
+ *
+ * The file is a fixed-size hash table of {@code slots} entries, each a 64-bit
+ * fingerprint and the time it was first recorded. A fingerprint only ever
+ * lives in the {@link #PROBE_WINDOW} slots after its home slot, so a lookup
+ * reads at most that many entries however full the table is. Entries older
+ * than the retention period count as free. If a window has no free slot, its
+ * oldest entry is given up, which can only let a duplicate through, never
+ * hold back a new result.
+ *
+ * Updates go straight to the mapped pages, so they outlive the process being
+ * killed; they are forced to disk on {@link #close}. A file written with a
+ * different number of slots is started over.
+ */
+class DedupIndex implements AutoCloseable {
+
+    private static final int MAGIC = 0x44445550;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int SLOT_BYTES = 16;
+    private static final int PROBE_WINDOW = 16;
+    // Keeps the mapping under the 2 GB a single buffer can cover
+    private static final int MAX_SLOTS = 1 << 26;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer table;
+    private final int mask;
+    private volatile long retentionMillis;
+
+    DedupIndex(Path file, int slots, long retentionMillis, Consumer<String> logger) throws IOException {
+        int size = Integer.highestOneBit(Math.max(PROBE_WINDOW, Math.min(MAX_SLOTS, slots)) * 2 - 1);
+        this.mask = size - 1;
+        this.retentionMillis = retentionMillis;
+        long fileBytes = HEADER_BYTES + (long) size * SLOT_BYTES;
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            boolean reuse = channel.size() == fileBytes && headerMatches(size);
+            if (!reuse) {
+                if (channel.size() > 0) {
+                    logger.accept("Dedup index " + file + " does not match " + size
+                            + " slots, starting it over.");
+                }
+                channel.truncate(0);
+                // Extends the file with zeroes, which mark every slot free
+                channel.write(ByteBuffer.allocate(1), fileBytes - 1);
+            }
+            table = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileBytes);
+            if (!reuse) {
+                table.putInt(0, MAGIC);
+                table.putInt(4, VERSION);
+                table.putInt(8, size);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Applies a new retention period to every entry, including those already
+     * recorded.
+     */
+    void setRetentionMillis(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+    }
+
+    private boolean headerMatches(int size) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(12);
+        channel.read(header, 0);
+        return !header.hasRemaining() && header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                && header.getInt(8) == size;
+    }
+
+    /**
+     * Returns the fingerprint of a board result. Never 0, which marks a free
+     * slot.
+     */
+    static long fingerprint(String... fields) {
+        // FNV-1a over the fields, each followed by a separator so that
+        // ("ab", "c") and ("a", "bc") differ
+        long h = 0xcbf29ce484222325L;
+        for (String field : fields) {
+            byte[] bytes = (field != null ? field : "\u0000").getBytes(StandardCharsets.UTF_8);
+            for (byte b : bytes) {
+                h = (h ^ (b & 0xff)) * 0x100000001b3L;
+            }
+            h = (h ^ 0x1f) * 0x100000001b3L;
+        }
+        // Spread the bits, since the low ones pick the home slot
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h != 0 ? h : 1;
+    }
+
+    /**
+     * Returns true if the fingerprint was recorded within the retention
+     * period.
+     */
+    synchronized boolean contains(long fingerprint, long now) {
+        int home = (int) fingerprint & mask;
+        for (int i = 0; i < PROBE_WINDOW; i++) {
+            int offset = offset((home + i) & mask);
+            if (table.getLong(offset) == fingerprint) {
+                return now - table.getLong(offset + 8) < retentionMillis;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records the fingerprint as of {@code now}, once the board's output
+     * exists, so that later copies of it are recognised.
+     */
+    synchronized void record(long fingerprint, long now) {
+        int home = (int) fingerprint & mask;
+        int free = -1;
+        int oldest = -1;
+        long oldestTime = Long.MAX_VALUE;
+        for (int i = 0; i < PROBE_WINDOW; i++) {
+            int offset = offset((home + i) & mask);
+            long stored = table.getLong(offset);
+            long recorded = table.getLong(offset + 8);
+            if (stored == fingerprint) {
+                free = offset;
+                break;
+            }
+            if ((stored == 0 || now - recorded >= retentionMillis) && free < 0) {
+                free = offset;
+            }
+            if (recorded < oldestTime) {
+                oldestTime = recorded;
+                oldest = offset;
+            }
+        }
+        int slot = free >= 0 ? free : oldest;
+        table.putLong(slot, fingerprint);
+        table.putLong(slot + 8, now);
+    }
+
+    private static int offset(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    @Override
+    public synchronized void close() {
+        table.force();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
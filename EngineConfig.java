@@ -0,0 +1,239 @@
+package parser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * One loaded configuration file, parsed and checked up front. Never changed
+ * after it is built: a reload parses a new one and the engine swaps it in as a
+ * whole, so every stage sees either the old settings or the new ones, never a
+ * mix of the two.
+ */
+final class EngineConfig {
+
+    final File configFile;
+    final Properties properties;
+
+    final boolean logEnable;
+    final String logDirPath;
+    final int logQueueCapacity;
+    final long logMaxFileBytes;
+    final AsyncFileLogger.OverflowPolicy logOverflowPolicy;
+
+    final List<MachineProfile> machines;
+    final String sqlConStr;
+    final String ingestionMode;
+    final long fileStableMillis;
+    final long rescanMillis;
+    final int catchUpThreshold;
+    final int catchUpBatchSize;
+    final int catchUpMaxInFlight;
+
+    final int dbPoolMaxSize;
+    final long dbPoolIdleTimeoutMillis;
+    final int dbValidationTimeoutSeconds;
+    final long dbBorrowTimeoutMillis;
+    final long dbMaxBackoffMillis;
+    final int cacheMaxEntries;
+    final long cacheTtlMillis;
+    final boolean cachePrefetch;
+    final int lookupBatchSize;
+    final long lookupBatchMaxDelayMillis;
+    final int dbCircuitFailureThreshold;
+    final long dbCircuitOpenMillis;
+    final long dbCircuitMaxOpenMillis;
+
+    final String journalPath;
+    final long journalSegmentBytes;
+    final long journalReplayMillis;
+    final String dedupIndexPath;
+    final long dedupRetentionMillis;
+    final int dedupIndexSlots;
+
+    final int parseThreads;
+    final int enrichThreads;
+    final int emitThreads;
+    final int archiveThreads;
+    final int pipelineQueueCapacity;
+    final boolean virtualThreads;
+    final long drainMillis;
+
+    final GenericTesterWriter.SyncMode xmlSyncMode;
+    final int xmlSyncBatchSize;
+    final String backupMode;
+    final long archiveSegmentMinutes;
+    final long archiveSegmentBytes;
+    final int xmlAggregateMaxBoards;
+    final long xmlAggregateWindowMillis;
+
+    final int metricsHttpPort;
+    final String metricsHttpBind;
+    final long configCheckMillis;
+    final int uiRefreshMillis;
+    final int uiMaxLogLines;
+
+    private EngineConfig(File configFile, Properties prop) {
+        this.configFile = configFile;
+        this.properties = prop;
+
+        logEnable = Boolean.parseBoolean(prop.getProperty("LogEnable", "false"));
+        String logDir = prop.getProperty("LogPath");
+        if (logDir != null && !logDir.trim().isEmpty()) {
+            logDir = logDir.trim();
+            if (!logDir.endsWith(File.separator)) {
+                logDir += File.separator;
+            }
+        }
+        logDirPath = logDir;
+        logQueueCapacity = Integer.parseInt(prop.getProperty("LogQueueCapacity", "8192").trim());
+        logMaxFileBytes = Long.parseLong(prop.getProperty("LogMaxFileSizeMB", "50").trim()) * 1024 * 1024;
+        logOverflowPolicy =
+                AsyncFileLogger.OverflowPolicy.valueOf(prop.getProperty("LogOverflowPolicy", "DropNewest").trim());
+
+        machines = Collections.unmodifiableList(MachineProfile.fromProperties(prop));
+        sqlConStr = prop.getProperty("ConnectionString");
+        ingestionMode = prop.getProperty("IngestionMode", "Watch").trim();
+        fileStableMillis = Long.parseLong(prop.getProperty("FileStableMillis", "250").trim());
+        rescanMillis = Long.parseLong(prop.getProperty("RescanIntervalSeconds", "60").trim()) * 1000;
+        catchUpThreshold = Integer.parseInt(prop.getProperty("CatchUpThreshold", "500").trim());
+        catchUpBatchSize = Integer.parseInt(prop.getProperty("CatchUpBatchSize", "5000").trim());
+        catchUpMaxInFlight = Integer.parseInt(prop.getProperty("CatchUpMaxInFlight", "32").trim());
+
+        dbPoolMaxSize = Integer.parseInt(prop.getProperty("DbPoolMaxSize", "4").trim());
+        dbPoolIdleTimeoutMillis = Long.parseLong(prop.getProperty("DbPoolIdleTimeoutSeconds", "300").trim()) * 1000;
+        dbValidationTimeoutSeconds = Integer.parseInt(prop.getProperty("DbValidationTimeoutSeconds", "5").trim());
+        dbBorrowTimeoutMillis = Long.parseLong(prop.getProperty("DbBorrowTimeoutSeconds", "30").trim()) * 1000;
+        dbMaxBackoffMillis = Long.parseLong(prop.getProperty("DbReconnectMaxBackoffSeconds", "60").trim()) * 1000;
+        cacheMaxEntries = Integer.parseInt(prop.getProperty("LookupCacheMaxEntries", "50000").trim());
+        cacheTtlMillis = Long.parseLong(prop.getProperty("LookupCacheTtlSeconds", "3600").trim()) * 1000;
+        cachePrefetch = Boolean.parseBoolean(prop.getProperty("LookupPrefetchEnabled", "true").trim());
+        lookupBatchSize = Integer.parseInt(prop.getProperty("LookupBatchSize", "50").trim());
+        lookupBatchMaxDelayMillis = Long.parseLong(prop.getProperty("LookupBatchMaxDelayMillis", "20").trim());
+        dbCircuitFailureThreshold = Integer.parseInt(prop.getProperty("DbCircuitFailureThreshold", "3").trim());
+        dbCircuitOpenMillis = Long.parseLong(prop.getProperty("DbCircuitOpenSeconds", "10").trim()) * 1000;
+        dbCircuitMaxOpenMillis = Long.parseLong(prop.getProperty("DbCircuitMaxOpenSeconds", "300").trim()) * 1000;
+
+        // Local by default, next to the configuration, so it survives a network outage
+        journalPath = prop.getProperty("JournalPath",
+                new File(configFile.getAbsoluteFile().getParentFile(), "journal").getPath()).trim();
+        journalSegmentBytes = Long.parseLong(prop.getProperty("JournalSegmentSizeMB", "16").trim()) * 1024 * 1024;
+        journalReplayMillis = Long.parseLong(prop.getProperty("JournalReplayIntervalSeconds", "10").trim()) * 1000;
+        dedupIndexPath = prop.getProperty("DedupIndexPath",
+                new File(configFile.getAbsoluteFile().getParentFile(), "dedup.idx").getPath()).trim();
+        dedupRetentionMillis = Long.parseLong(prop.getProperty("DedupRetentionHours", "0").trim()) * 3600 * 1000;
+        dedupIndexSlots = Integer.parseInt(prop.getProperty("DedupIndexSlots", "1048576").trim());
+
+        parseThreads = Integer.parseInt(prop.getProperty("ParseThreads", "2").trim());
+        enrichThreads = Integer.parseInt(prop.getProperty("EnrichThreads", "4").trim());
+        emitThreads = Integer.parseInt(prop.getProperty("EmitThreads", "2").trim());
+        archiveThreads = Integer.parseInt(prop.getProperty("ArchiveThreads", "1").trim());
+        pipelineQueueCapacity = Integer.parseInt(prop.getProperty("PipelineQueueCapacity", "256").trim());
+        virtualThreads = Boolean.parseBoolean(prop.getProperty("UseVirtualThreads", "true").trim());
+        drainMillis = Long.parseLong(prop.getProperty("ShutdownDrainSeconds", "30").trim()) * 1000;
+
+        xmlSyncMode = GenericTesterWriter.SyncMode.valueOf(prop.getProperty("XmlSyncMode", "None").trim());
+        xmlSyncBatchSize = Integer.parseInt(prop.getProperty("XmlSyncBatchSize", "32").trim());
+        // One file per board in the backup folder, as always; Segment archives have to be asked for
+        backupMode = prop.getProperty("BackupMode", "Move").trim();
+        archiveSegmentMinutes = Long.parseLong(prop.getProperty("ArchiveSegmentMinutes", "60").trim());
+        archiveSegmentBytes = Long.parseLong(prop.getProperty("ArchiveSegmentSizeMB", "256").trim()) * 1024 * 1024;
+        if (!"Segment".equalsIgnoreCase(backupMode) && !"Move".equalsIgnoreCase(backupMode)) {
+            throw new IllegalArgumentException("Unknown BackupMode: " + backupMode);
+        }
+        if (isSegmentBackup()) {
+            for (MachineProfile machine : machines) {
+                if (machine.backupFolderPath == null || machine.backupFolderPath.trim().isEmpty()) {
+                    throw new IllegalArgumentException("'BackupFolderPath' is missing for machine " + machine.name + ".");
+                }
+            }
+        }
+        xmlAggregateMaxBoards = Integer.parseInt(prop.getProperty("XmlAggregateMaxBoards", "1").trim());
+        xmlAggregateWindowMillis = Long.parseLong(prop.getProperty("XmlAggregateWindowSeconds", "10").trim()) * 1000;
+
+        metricsHttpPort = Integer.parseInt(prop.getProperty("MetricsHttpPort", "0").trim());
+        metricsHttpBind = prop.getProperty("MetricsHttpBind", "127.0.0.1").trim();
+        configCheckMillis = Long.parseLong(prop.getProperty("ConfigReloadCheckSeconds", "5").trim()) * 1000;
+        uiRefreshMillis = Integer.parseInt(prop.getProperty("UiRefreshMillis", "100").trim());
+        uiMaxLogLines = Integer.parseInt(prop.getProperty("UiMaxLogLines", "1000").trim());
+        if (uiRefreshMillis <= 0 || uiMaxLogLines <= 0) {
+            throw new IllegalArgumentException("'UiRefreshMillis' and 'UiMaxLogLines' must be positive.");
+        }
+    }
+
+    /**
+     * Reads and checks a configuration file. Throws IllegalArgumentException
+     * (including NumberFormatException) for a setting that is missing or
+     * malformed.
+     */
+    static EngineConfig load(File configFile) throws IOException {
+        Properties prop = new Properties();
+        try (BufferedReader input = new BufferedReader(new FileReader(configFile))) {
+            prop.load(input);
+        }
+        return new EngineConfig(configFile, prop);
+    }
+
+    boolean isSegmentBackup() {
+        return "Segment".equalsIgnoreCase(backupMode);
+    }
+
+    /**
+     * Number of lookups the enrich stage takes at once.
+     */
+    int lookupBatch() {
+        return Math.max(1, Math.min(lookupBatchSize, LookupBatcher.MAX_BATCH_SIZE));
+    }
+
+    /**
+     * Number of boards an emit worker writes at once; batched sync forces
+     * whatever the workers find queued together.
+     */
+    int emitBatch() {
+        return xmlSyncMode == GenericTesterWriter.SyncMode.Batch ? Math.max(1, xmlSyncBatchSize) : 1;
+    }
+
+    /**
+     * Number of files archived at once; a segment batch shares one fsync.
+     */
+    int archiveBatch(int segmentBatch) {
+        return isSegmentBackup() ? segmentBatch : 1;
+    }
+
+    boolean sameLog(EngineConfig other) {
+        return logEnable == other.logEnable && Objects.equals(logDirPath, other.logDirPath)
+                && logQueueCapacity == other.logQueueCapacity && logMaxFileBytes == other.logMaxFileBytes
+                && logOverflowPolicy == other.logOverflowPolicy;
+    }
+
+    /**
+     * Whether the machines' folder watches and backlog drainers can keep
+     * running under the other configuration.
+     */
+    boolean sameIngestion(EngineConfig other) {
+        return ingestionMode.equalsIgnoreCase(other.ingestionMode) && fileStableMillis == other.fileStableMillis
+                && rescanMillis == other.rescanMillis && catchUpThreshold == other.catchUpThreshold
+                && catchUpBatchSize == other.catchUpBatchSize && catchUpMaxInFlight == other.catchUpMaxInFlight;
+    }
+
+    /**
+     * Whether the existing connection pool can be kept, resized if need be.
+     */
+    boolean sameDatabase(EngineConfig other) {
+        return Objects.equals(sqlConStr, other.sqlConStr);
+    }
+
+    boolean sameAggregation(EngineConfig other) {
+        return xmlSyncMode == other.xmlSyncMode && xmlAggregateMaxBoards == other.xmlAggregateMaxBoards
+                && xmlAggregateWindowMillis == other.xmlAggregateWindowMillis;
+    }
+
+    boolean sameMetricsEndpoint(EngineConfig other) {
+        return metricsHttpPort == other.metricsHttpPort && metricsHttpBind.equals(other.metricsHttpBind);
+    }
+}
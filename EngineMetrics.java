@@ -0,0 +1,360 @@
+package parser;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Counters and per-stage latency histograms for the engine, readable over JMX
+ * and as Prometheus text (see {@link MetricsHttpServer}).
+ *
+ * Stages: {@code file} is the whole per-file time from submission to archive;
+ * {@code parse}, {@code enrich}, {@code emit} and {@code archive} are the
+ * pipeline stages. Files per second is averaged over the last minute.
+ * Counters that belong to one machine are also broken down per machine
+ * profile (see {@link MachineMetrics}).
+ */
+class EngineMetrics implements EngineMetricsMBean {
+
+    static final String[] STAGES = {"file", "parse", "enrich", "emit", "archive"};
+
+    private static final int RATE_WINDOW_SECONDS = 60;
+
+    private final Map<String, LatencyHistogram> stages = new LinkedHashMap<>();
+    // Replaced as a whole when the configuration is loaded
+    private volatile Map<String, MachineMetrics> machines = Collections.emptyMap();
+
+    final AtomicLong filesProcessed = new AtomicLong();
+    final AtomicLong filesFailed = new AtomicLong();
+    final AtomicLong dbErrors = new AtomicLong();
+    final AtomicLong unknownSideRejects = new AtomicLong();
+    final AtomicLong xmlErrors = new AtomicLong();
+    final AtomicLong recordsJournaled = new AtomicLong();
+    final AtomicLong recordsReplayed = new AtomicLong();
+    final AtomicLong duplicatesSkipped = new AtomicLong();
+
+    // Files archived per wall-clock second, for the last RATE_WINDOW_SECONDS seconds
+    private final AtomicLongArray secondCounts = new AtomicLongArray(RATE_WINDOW_SECONDS);
+    private final AtomicLongArray secondStamps = new AtomicLongArray(RATE_WINDOW_SECONDS);
+
+    private volatile IntSupplier inFlight = () -> 0;
+    private volatile LongSupplier cacheHits = () -> 0;
+    private volatile LongSupplier cacheMisses = () -> 0;
+    private volatile LongSupplier journalPending = () -> 0;
+    private volatile BooleanSupplier dbCircuitOpen = () -> false;
+
+    EngineMetrics() {
+        for (String stage : STAGES) {
+            stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    LatencyHistogram stage(String name) {
+        return stages.get(name);
+    }
+
+    /**
+     * Sets the machines to break the counters down by, in display order.
+     * Machines that were already known keep their counts.
+     */
+    void setMachines(List<String> names) {
+        Map<String, MachineMetrics> current = machines;
+        Map<String, MachineMetrics> updated = new LinkedHashMap<>();
+        for (String name : names) {
+            MachineMetrics existing = current.get(name);
+            updated.put(name, existing != null ? existing : new MachineMetrics(name));
+        }
+        machines = updated;
+    }
+
+    MachineMetrics machine(String name) {
+        return machines.get(name);
+    }
+
+    void bindGauges(IntSupplier inFlight, LongSupplier cacheHits, LongSupplier cacheMisses) {
+        this.inFlight = inFlight;
+        this.cacheHits = cacheHits;
+        this.cacheMisses = cacheMisses;
+    }
+
+    void bindJournalGauges(LongSupplier journalPending, BooleanSupplier dbCircuitOpen) {
+        this.journalPending = journalPending;
+        this.dbCircuitOpen = dbCircuitOpen;
+    }
+
+    /**
+     * Counts a file that has left the pipeline and returns the running total.
+     */
+    long fileProcessed() {
+        long total = filesProcessed.incrementAndGet();
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % RATE_WINDOW_SECONDS);
+        long stamp = secondStamps.get(slot);
+        if (stamp != second && secondStamps.compareAndSet(slot, stamp, second)) {
+            secondCounts.set(slot, 0);
+        }
+        secondCounts.incrementAndGet(slot);
+        return total;
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        long now = System.currentTimeMillis() / 1000;
+        long total = 0;
+        // Only complete seconds, the current one is still filling up
+        for (int i = 0; i < RATE_WINDOW_SECONDS; i++) {
+            long stamp = secondStamps.get(i);
+            if (stamp < now && now - stamp <= RATE_WINDOW_SECONDS) {
+                total += secondCounts.get(i);
+            }
+        }
+        return (double) total / RATE_WINDOW_SECONDS;
+    }
+
+    @Override
+    public long getFilesProcessed() {
+        return filesProcessed.get();
+    }
+
+    @Override
+    public long getFilesFailed() {
+        return filesFailed.get();
+    }
+
+    @Override
+    public long getDbErrors() {
+        return dbErrors.get();
+    }
+
+    @Override
+    public long getUnknownSideRejects() {
+        return unknownSideRejects.get();
+    }
+
+    @Override
+    public long getXmlErrors() {
+        return xmlErrors.get();
+    }
+
+    /**
+     * Files waiting in the input folders of all machines.
+     */
+    @Override
+    public int getInputBacklog() {
+        int total = 0;
+        for (MachineMetrics machine : machines.values()) {
+            total += machine.getInputBacklog();
+        }
+        return total;
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.getAsInt();
+    }
+
+    @Override
+    public long getLookupCacheHits() {
+        return cacheHits.getAsLong();
+    }
+
+    @Override
+    public long getLookupCacheMisses() {
+        return cacheMisses.getAsLong();
+    }
+
+    @Override
+    public long getRecordsJournaled() {
+        return recordsJournaled.get();
+    }
+
+    @Override
+    public long getRecordsReplayed() {
+        return recordsReplayed.get();
+    }
+
+    @Override
+    public long getDuplicatesSkipped() {
+        return duplicatesSkipped.get();
+    }
+
+    @Override
+    public long getJournalPending() {
+        return journalPending.getAsLong();
+    }
+
+    @Override
+    public boolean isDbCircuitOpen() {
+        return dbCircuitOpen.getAsBoolean();
+    }
+
+    void registerMBeans() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        unregisterMBeans();
+        server.registerMBean(this, new ObjectName("parser:type=EngineMetrics"));
+        for (Map.Entry<String, LatencyHistogram> stage : stages.entrySet()) {
+            // The interface isn't named after the class, so it has to be given explicitly
+            server.registerMBean(new StandardMBean(stage.getValue(), StageLatencyMBean.class), new ObjectName("parser:type=StageLatency,name=" + stage.getKey()));
+        }
+        for (MachineMetrics machine : machines.values()) {
+            server.registerMBean(machine, machineName(machine.machine));
+        }
+    }
+
+    private static ObjectName machineName(String machine) throws JMException {
+        return new ObjectName("parser:type=MachineMetrics,name=" + ObjectName.quote(machine));
+    }
+
+    void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName engine = new ObjectName("parser:type=EngineMetrics");
+            if (server.isRegistered(engine)) {
+                server.unregisterMBean(engine);
+            }
+            for (String stage : stages.keySet()) {
+                ObjectName name = new ObjectName("parser:type=StageLatency,name=" + stage);
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            }
+            // Including machines dropped from the configuration since they were registered
+            for (ObjectName name : server.queryNames(new ObjectName("parser:type=MachineMetrics,*"), null)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ignored) {
+        }
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format.
+     */
+    String toPrometheusText() {
+        StringBuilder sb = new StringBuilder(4096);
+        counter(sb, "aoiparser_files_processed_total", "CSV files archived after processing", getFilesProcessed());
+        counter(sb, "aoiparser_files_failed_total", "CSV files that failed processing", getFilesFailed());
+        counter(sb, "aoiparser_db_errors_total", "Database lookups that failed", getDbErrors());
+        counter(sb, "aoiparser_unknown_side_rejects_total", "CSV files whose program name has no side",
+                getUnknownSideRejects());
+        counter(sb, "aoiparser_xml_errors_total", "GenericTester files that could not be written", getXmlErrors());
+        counter(sb, "aoiparser_lookup_cache_hits_total", "Serial lookups answered from the cache", getLookupCacheHits());
+        counter(sb, "aoiparser_lookup_cache_misses_total", "Serial lookups that went to the database",
+                getLookupCacheMisses());
+        counter(sb, "aoiparser_records_journaled_total", "Records journaled because the database was unavailable",
+                getRecordsJournaled());
+        counter(sb, "aoiparser_records_replayed_total", "Journaled records enriched and written out later",
+                getRecordsReplayed());
+        counter(sb, "aoiparser_duplicates_skipped_total", "Boards skipped because the same result was already processed",
+                getDuplicatesSkipped());
+        gauge(sb, "aoiparser_journal_pending", "Journaled records waiting for the database", getJournalPending());
+        gauge(sb, "aoiparser_db_circuit_open", "1 while database calls are suspended after repeated failures",
+                isDbCircuitOpen() ? 1 : 0);
+        gauge(sb, "aoiparser_files_per_second", "Files archived per second over the last minute", getFilesPerSecond());
+        gauge(sb, "aoiparser_input_backlog", "CSV files waiting in the input folders", getInputBacklog());
+        gauge(sb, "aoiparser_in_flight", "Files picked up but not yet archived", getInFlight());
+
+        sb.append("# HELP aoiparser_stage_latency_seconds Time spent per file in each stage\n");
+        sb.append("# TYPE aoiparser_stage_latency_seconds summary\n");
+        for (Map.Entry<String, LatencyHistogram> stage : stages.entrySet()) {
+            LatencyHistogram h = stage.getValue();
+            String label = "stage=\"" + stage.getKey() + "\"";
+            sb.append("aoiparser_stage_latency_seconds{").append(label).append(",quantile=\"0.5\"} ")
+                    .append(format(h.quantileSeconds(0.5))).append('\n');
+            sb.append("aoiparser_stage_latency_seconds{").append(label).append(",quantile=\"0.99\"} ")
+                    .append(format(h.quantileSeconds(0.99))).append('\n');
+            sb.append("aoiparser_stage_latency_seconds_sum{").append(label).append("} ")
+                    .append(format(h.sumSeconds())).append('\n');
+            sb.append("aoiparser_stage_latency_seconds_count{").append(label).append("} ")
+                    .append(h.getCount()).append('\n');
+        }
+
+        Map<String, MachineMetrics> perMachine = machines;
+        machineCounter(sb, perMachine, "aoiparser_machine_files_processed_total", "CSV files archived after processing",
+                MachineMetrics::getFilesProcessed);
+        machineCounter(sb, perMachine, "aoiparser_machine_files_failed_total", "CSV files that failed processing",
+                MachineMetrics::getFilesFailed);
+        machineCounter(sb, perMachine, "aoiparser_machine_unknown_side_rejects_total",
+                "CSV files whose program name has no side", MachineMetrics::getUnknownSideRejects);
+        machineCounter(sb, perMachine, "aoiparser_machine_xml_errors_total",
+                "GenericTester files that could not be written", MachineMetrics::getXmlErrors);
+        machineCounter(sb, perMachine, "aoiparser_machine_records_journaled_total",
+                "Records journaled because the database was unavailable", MachineMetrics::getRecordsJournaled);
+        machineCounter(sb, perMachine, "aoiparser_machine_records_replayed_total",
+                "Journaled records enriched and written out later", MachineMetrics::getRecordsReplayed);
+        machineCounter(sb, perMachine, "aoiparser_machine_duplicates_skipped_total",
+                "Boards skipped because the same result was already processed", MachineMetrics::getDuplicatesSkipped);
+        machineGauge(sb, perMachine, "aoiparser_machine_input_backlog", "CSV files waiting in the input folder",
+                MachineMetrics::getInputBacklog);
+        machineGauge(sb, perMachine, "aoiparser_machine_in_flight", "Files picked up but not yet archived",
+                MachineMetrics::getInFlight);
+        sb.append("# HELP aoiparser_machine_file_latency_seconds Time per file from pickup to archive\n");
+        sb.append("# TYPE aoiparser_machine_file_latency_seconds summary\n");
+        for (MachineMetrics m : perMachine.values()) {
+            LatencyHistogram h = m.fileLatency;
+            String label = machineLabel(m);
+            sb.append("aoiparser_machine_file_latency_seconds{").append(label).append(",quantile=\"0.5\"} ")
+                    .append(format(h.quantileSeconds(0.5))).append('\n');
+            sb.append("aoiparser_machine_file_latency_seconds{").append(label).append(",quantile=\"0.99\"} ")
+                    .append(format(h.quantileSeconds(0.99))).append('\n');
+            sb.append("aoiparser_machine_file_latency_seconds_sum{").append(label).append("} ")
+                    .append(format(h.sumSeconds())).append('\n');
+            sb.append("aoiparser_machine_file_latency_seconds_count{").append(label).append("} ")
+                    .append(h.getCount()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void machineCounter(StringBuilder sb, Map<String, MachineMetrics> perMachine, String name,
+                                       String help, ToLongFunction<MachineMetrics> value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        for (MachineMetrics m : perMachine.values()) {
+            sb.append(name).append('{').append(machineLabel(m)).append("} ")
+                    .append(value.applyAsLong(m)).append('\n');
+        }
+    }
+
+    private static void machineGauge(StringBuilder sb, Map<String, MachineMetrics> perMachine, String name,
+                                     String help, ToLongFunction<MachineMetrics> value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        for (MachineMetrics m : perMachine.values()) {
+            sb.append(name).append('{').append(machineLabel(m)).append("} ")
+                    .append(value.applyAsLong(m)).append('\n');
+        }
+    }
+
+    private static String machineLabel(MachineMetrics m) {
+        String escaped = m.machine.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return "machine=\"" + escaped + "\"";
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, double value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+}
@@ -0,0 +1,37 @@
+package parser;
+
+/**
+ * JMX view of the engine counters, registered as {@code parser:type=EngineMetrics}.
+ */
+public interface EngineMetricsMBean {
+
+    long getFilesProcessed();
+
+    long getFilesFailed();
+
+    double getFilesPerSecond();
+
+    long getDbErrors();
+
+    long getUnknownSideRejects();
+
+    long getXmlErrors();
+
+    int getInputBacklog();
+
+    int getInFlight();
+
+    long getLookupCacheHits();
+
+    long getLookupCacheMisses();
+
+    long getRecordsJournaled();
+
+    long getRecordsReplayed();
+
+    long getDuplicatesSkipped();
+
+    long getJournalPending();
+
+    boolean isDbCircuitOpen();
+}
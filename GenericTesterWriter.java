@@ -0,0 +1,375 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes GenericTester XML files so the MES importer only ever sees complete ones.
+ *
+ * Documents are rendered from pre-encoded UTF-8 template pieces into a buffer
+ * that each thread reuses, with attribute values escaped on the way in. Each
+ * file is written through a FileChannel under a temporary name of its own and
+ * then moved into place. An existing file is never replaced: if two boards get
+ * the same name, for example a retest within the same second, the later one
+ * gets a numbered name. How much is forced to disk is set by {@link SyncMode}:
+ * nothing (None), every file before its rename (Each), or every file of a
+ * {@link Batch} together before the renames, with one sync per output folder
+ * after them (Batch).
+ */
+class GenericTesterWriter {
+
+    enum SyncMode {
+        None, Each, Batch
+    }
+
+    private static final String NL = System.lineSeparator();
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Everything around the attribute values, encoded once
+    private static final byte[] HEADER_RECIPE = utf8("<?xml version=\"1.0\" encoding=\"utf-8\"?>" + NL
+            + "<GenericTester xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "
+            + "xmlns:xsd=\"http://www.w3.org/2001/XMLSchema-instance\" RecipeId=\"");
+    private static final byte[] HEADER_WORK_ORDER = utf8("\" UserLogin=\"User\" WorkOrderId=\"");
+    private static final byte[] HEADER_OPERATION = utf8("\" OperationId=\"");
+    private static final byte[] HEADER_LOOP_TIME = utf8("\" LoopTimestamp=\"");
+    private static final byte[] HEADER_END = utf8("\" xmlns=\"Valor.GenericTester.xsd\">" + NL);
+    private static final byte[] BOARD_BARCODE = utf8("<BoardTestResult BarcodeId=\"");
+    private static final byte[] BOARD_STATUS = utf8("\" StatusCode=\"");
+    private static final byte[] BOARD_START_TIME = utf8("\" BoardTestStartTimestamp=\"");
+    private static final byte[] BOARD_DURATION = utf8("\" OperationDuration=\"");
+    private static final byte[] BOARD_SEQUENCE = utf8("\" Sequence=\"");
+    private static final byte[] BOARD_END = utf8("\" />" + NL);
+    private static final byte[] FOOTER = utf8("</GenericTester>" + NL);
+
+    private final SyncMode syncMode;
+    private final ThreadLocal<Output> outputs = ThreadLocal.withInitial(Output::new);
+
+    /**
+     * Growable byte buffer reused for every document a thread renders.
+     */
+    private static class Output {
+        byte[] bytes = new byte[4096];
+        int length;
+
+        void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                byte[] bigger = new byte[Math.max(bytes.length * 2, length + extra)];
+                System.arraycopy(bytes, 0, bigger, 0, length);
+                bytes = bigger;
+            }
+        }
+
+        void append(byte[] literal) {
+            ensure(literal.length);
+            System.arraycopy(literal, 0, bytes, length, literal.length);
+            length += literal.length;
+        }
+
+        /**
+         * Appends a value escaped for a double-quoted attribute, as UTF-8. Tabs
+         * and line breaks become character references so they survive attribute
+         * normalisation; other characters XML 1.0 does not allow are dropped. A
+         * null is written as "null", as the text concatenation it replaces did.
+         */
+        void appendAttribute(String value) {
+            if (value == null) {
+                value = "null";
+            }
+            int n = value.length();
+            ensure(n * 6);
+            for (int i = 0; i < n; i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '&': put("&amp;"); continue;
+                    case '<': put("&lt;"); continue;
+                    case '>': put("&gt;"); continue;
+                    case '"': put("&quot;"); continue;
+                    case '\t': put("&#9;"); continue;
+                    case '\n': put("&#10;"); continue;
+                    case '\r': put("&#13;"); continue;
+                    default:
+                }
+                if (c < 0x80) {
+                    if (c >= 0x20) {
+                        bytes[length++] = (byte) c;
+                    }
+                } else if (c < 0x800) {
+                    bytes[length++] = (byte) (0xC0 | c >> 6);
+                    bytes[length++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    bytes[length++] = (byte) (0xF0 | cp >> 18);
+                    bytes[length++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                    bytes[length++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                    bytes[length++] = (byte) (0x80 | cp & 0x3F);
+                } else if (!Character.isSurrogate(c) && c != 0xFFFE && c != 0xFFFF) {
+                    bytes[length++] = (byte) (0xE0 | c >> 12);
+                    bytes[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    bytes[length++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+        }
+
+        private void put(String ascii) {
+            for (int i = 0; i < ascii.length(); i++) {
+                bytes[length++] = (byte) ascii.charAt(i);
+            }
+        }
+    }
+
+    /**
+     * Files written but not yet renamed into place. With {@link SyncMode#Batch}
+     * they are all forced together by {@link #commit()}.
+     */
+    class Batch implements AutoCloseable {
+        private final List<Path> temps = new ArrayList<>();
+        private final List<Path> targets = new ArrayList<>();
+        private final List<FileChannel> channels = new ArrayList<>();
+
+        /**
+         * Writes one board's document under a temporary name and returns the
+         * name it is meant to have. {@link #commit()} returns the name it got.
+         */
+        Path add(Path outDir, AOIParserEngine.DataRecord dataRecord, String dtTime, String operationDuration)
+                throws IOException {
+            return add(outDir, Collections.singletonList(dataRecord), Collections.singletonList(dtTime),
+                    operationDuration);
+        }
+
+        /**
+         * Writes one document with a BoardTestResult per board, in order. The
+         * header is taken from the first board, and its test time becomes the
+         * LoopTimestamp. The file is named after the first board.
+         */
+        Path add(Path outDir, List<AOIParserEngine.DataRecord> boards, List<String> testTimes,
+                 String operationDuration) throws IOException {
+            Output out = render(boards, testTimes, operationDuration);
+            Path target = outDir.resolve(fileName(boards.get(0).serialNumber));
+            Path temp;
+            FileChannel channel;
+            do {
+                temp = outDir.resolve(target.getFileName() + "."
+                        + Long.toHexString(ThreadLocalRandom.current().nextLong()) + TEMP_SUFFIX);
+            } while ((channel = openTemp(temp)) == null);
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(out.bytes, 0, out.length);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (syncMode == SyncMode.Each) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                closeQuietly(channel);
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+
+            if (syncMode == SyncMode.Batch) {
+                channels.add(channel);
+            } else {
+                channel.close();
+            }
+            temps.add(temp);
+            targets.add(target);
+            return target;
+        }
+
+        /**
+         * Forces the files if required and moves them into place. Returns the
+         * final paths in the order they were added.
+         */
+        List<Path> commit() throws IOException {
+            for (FileChannel channel : channels) {
+                channel.force(false);
+                channel.close();
+            }
+            channels.clear();
+
+            List<Path> written = new ArrayList<>(targets.size());
+            while (!temps.isEmpty()) {
+                written.add(moveIntoPlace(temps.get(0), targets.get(0)));
+                temps.remove(0);
+                targets.remove(0);
+            }
+            if (syncMode != SyncMode.None) {
+                Set<Path> dirs = new LinkedHashSet<>();
+                for (Path file : written) {
+                    dirs.add(file.getParent());
+                }
+                for (Path dir : dirs) {
+                    syncDirectory(dir);
+                }
+            }
+            return written;
+        }
+
+        /**
+         * Discards whatever has not been committed.
+         */
+        @Override
+        public void close() {
+            for (FileChannel channel : channels) {
+                closeQuietly(channel);
+            }
+            channels.clear();
+            for (Path temp : temps) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+            temps.clear();
+            targets.clear();
+        }
+    }
+
+    GenericTesterWriter(SyncMode syncMode) {
+        this.syncMode = syncMode;
+    }
+
+    Batch newBatch() {
+        return new Batch();
+    }
+
+    /**
+     * Writes a single board's file and returns its path.
+     */
+    Path write(Path outDir, AOIParserEngine.DataRecord dataRecord, String dtTime, String operationDuration)
+            throws IOException {
+        try (Batch batch = newBatch()) {
+            batch.add(outDir, dataRecord, dtTime, operationDuration);
+            return batch.commit().get(0);
+        }
+    }
+
+    private Output render(List<AOIParserEngine.DataRecord> boards, List<String> testTimes, String operationDuration) {
+        Output out = outputs.get();
+        out.length = 0;
+        AOIParserEngine.DataRecord header = boards.get(0);
+        out.append(HEADER_RECIPE);
+        out.appendAttribute(header.program);
+        out.append(HEADER_WORK_ORDER);
+        out.appendAttribute(header.workOrderDetail);
+        out.append(HEADER_OPERATION);
+        out.appendAttribute(header.operationId);
+        out.append(HEADER_LOOP_TIME);
+        out.appendAttribute(testTimes.get(0));
+        out.append(HEADER_END);
+        for (int i = 0; i < boards.size(); i++) {
+            AOIParserEngine.DataRecord r = boards.get(i);
+            out.append(BOARD_BARCODE);
+            out.appendAttribute(r.serialNumber);
+            out.append(BOARD_STATUS);
+            out.appendAttribute(r.status);
+            out.append(BOARD_START_TIME);
+            out.appendAttribute(testTimes.get(i));
+            out.append(BOARD_DURATION);
+            out.appendAttribute(operationDuration);
+            out.append(BOARD_SEQUENCE);
+            out.appendAttribute(r.sequence);
+            out.append(BOARD_END);
+        }
+        out.append(FOOTER);
+        return out;
+    }
+
+    private static String fileName(String serialNumber) {
+        StringBuilder sb = new StringBuilder(48);
+        sb.append(LocalDateTime.now().format(FILE_TIMESTAMP)).append('_');
+        // A barcode must not be able to point the file somewhere else
+        for (int i = 0; i < serialNumber.length(); i++) {
+            char c = serialNumber.charAt(i);
+            sb.append(c < 0x20 || "\\/:*?\"<>|".indexOf(c) >= 0 ? '_' : c);
+        }
+        return sb.append("_GenericTester.xml").toString();
+    }
+
+    /**
+     * Creates and opens a new temporary file, or returns null if the name is
+     * already taken. Unlike Files.createTempFile this keeps the default
+     * permissions, so the importer can still read the file.
+     */
+    private static FileChannel openTemp(Path temp) throws IOException {
+        try {
+            try {
+                return FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (NoSuchFileException e) {
+                // Output folder removed while running
+                Files.createDirectories(temp.getParent());
+                return FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            }
+        } catch (FileAlreadyExistsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Moves the file to {@code target}, or to a numbered name next to it if
+     * that is taken, and returns where it went.
+     */
+    private static Path moveIntoPlace(Path temp, Path target) throws IOException {
+        String name = target.getFileName().toString();
+        for (int n = 1; ; n++) {
+            try {
+                place(temp, target);
+                return target;
+            } catch (FileAlreadyExistsException e) {
+                int dot = name.lastIndexOf('.');
+                target = target.resolveSibling(dot > 0
+                        ? name.substring(0, dot) + "_" + n + name.substring(dot) : name + "_" + n);
+            }
+        }
+    }
+
+    private static void place(Path temp, Path target) throws IOException {
+        // A hard link appears in one step and fails if the name is taken, where
+        // an atomic rename would silently replace an existing file
+        try {
+            Files.createLink(target, temp);
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // No hard links on this file system, e.g. some network shares
+            Files.move(temp, target);
+            return;
+        }
+        Files.delete(temp);
+    }
+
+    private static void syncDirectory(Path dir) {
+        // Makes the renames durable; not possible on every platform (Windows)
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,109 @@
+package parser;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets: four buckets per power of
+ * two of microseconds, so any reported percentile is within 25% of the true
+ * value. Recording is two atomic adds and never allocates.
+ */
+class LatencyHistogram implements StageLatencyMBean {
+
+    private static final int SUB_BUCKETS = 4;
+    // 2^40 microseconds is about 12 days, far beyond any stage
+    private static final int BUCKETS = 41 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos / 1000));
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // retry
+        }
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos} (from System.nanoTime).
+     */
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    private static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, (exponent - 1) * SUB_BUCKETS + sub);
+    }
+
+    // Upper bound of a bucket in microseconds
+    private static long bucketLimit(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        int exponent = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub + 1) << (exponent - 2);
+    }
+
+    /**
+     * Value at the given quantile (0..1) in seconds, or 0 if nothing was recorded.
+     */
+    double quantileSeconds(double quantile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketLimit(i) / 1e6, maxNanos.get() / 1e9);
+            }
+        }
+        return maxNanos.get() / 1e9;
+    }
+
+    double sumSeconds() {
+        return sumNanos.get() / 1e9;
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long total = count.get();
+        return total == 0 ? 0 : sumNanos.get() / 1e6 / total;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return quantileSeconds(0.5) * 1000;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return quantileSeconds(0.99) * 1000;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+}
@@ -0,0 +1,263 @@
+package parser;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Collects serial number lookups that missed the cache and resolves them in
+ * batches with a single set-based query.
+ *
+ * A batch is sent once {@code maxBatchSize} lookups are pending, once the oldest
+ * one has waited {@code maxDelayMillis}, or when a caller asks for an immediate
+ * {@link #flush()} because it has nothing more to add. {@code maxDelayMillis} is
+ * therefore the most latency batching can add to any single board. The serial
+ * numbers of one panel, given together to {@link #submitAll}, go out in the
+ * same batch even if that makes it larger than {@code maxBatchSize}, up to
+ * {@link #MAX_BATCH_SIZE}.
+ *
+ * Batches go through {@code breaker}; while it is open they fail at once with
+ * {@link CircuitBreaker.OpenException} instead of waiting on the database.
+ * Only connection failures count against the breaker. A batch the database
+ * rejects is retried one serial number at a time, so a single bad one fails
+ * only its own lookup. Whole-order prefetches run on a thread of their own
+ * once the batch has been answered.
+ */
+class LookupBatcher implements AutoCloseable {
+
+    // SQL Server accepts at most 2100 parameters per statement
+    static final int MAX_BATCH_SIZE = 1000;
+
+    private volatile SqlConnectionPool sqlPool;
+    private final SerialLookupCache lookupCache;
+    private final CircuitBreaker breaker;
+    private int maxBatchSize;
+    private long maxDelayMillis;
+    private final Consumer<String> logger;
+
+    private final List<Pending> pending = new ArrayList<>();
+    private boolean flushRequested;
+    private boolean closed;
+    private final Thread flusher;
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "lookup-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static class Pending {
+        final String serialNumber;
+        final long submittedAt;
+        // Shared by the lookups of one panel, null for a single board
+        final Object panel;
+        final CompletableFuture<SerialLookupCache.Lookup> result = new CompletableFuture<>();
+
+        Pending(String serialNumber, long submittedAt, Object panel) {
+            this.serialNumber = serialNumber;
+            this.submittedAt = submittedAt;
+            this.panel = panel;
+        }
+    }
+
+    LookupBatcher(SqlConnectionPool sqlPool, SerialLookupCache lookupCache, CircuitBreaker breaker,
+                  int maxBatchSize, long maxDelayMillis, Consumer<String> logger) {
+        this.sqlPool = sqlPool;
+        this.lookupCache = lookupCache;
+        this.breaker = breaker;
+        this.maxBatchSize = Math.max(1, Math.min(maxBatchSize, MAX_BATCH_SIZE));
+        this.maxDelayMillis = Math.max(0, maxDelayMillis);
+        this.logger = logger;
+
+        flusher = new Thread(this::run, "lookup-batcher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Applies a reloaded configuration. Batches already sent finish on the
+     * pool they started with.
+     */
+    synchronized void configure(SqlConnectionPool sqlPool, int maxBatchSize, long maxDelayMillis) {
+        this.sqlPool = sqlPool;
+        this.maxBatchSize = Math.max(1, Math.min(maxBatchSize, MAX_BATCH_SIZE));
+        this.maxDelayMillis = Math.max(0, maxDelayMillis);
+        notifyAll();
+    }
+
+    /**
+     * Queues a lookup. The future completes with null if the serial number is not in
+     * the database, or exceptionally with the SQLException that failed its batch.
+     */
+    CompletableFuture<SerialLookupCache.Lookup> submit(String serialNumber) {
+        return submitAll(Collections.singletonList(serialNumber)).get(0);
+    }
+
+    /**
+     * Queues the lookups for the blocks of one panel so they are resolved by
+     * the same query. Returns their futures in the same order.
+     */
+    List<CompletableFuture<SerialLookupCache.Lookup>> submitAll(List<String> serialNumbers) {
+        long now = System.currentTimeMillis();
+        Object panel = serialNumbers.size() > 1 ? new Object() : null;
+        List<CompletableFuture<SerialLookupCache.Lookup>> results = new ArrayList<>(serialNumbers.size());
+        synchronized (this) {
+            for (String serialNumber : serialNumbers) {
+                Pending p = new Pending(serialNumber, now, panel);
+                if (closed) {
+                    p.result.completeExceptionally(new SQLTransientConnectionException("Lookup batcher is closed.",
+                            SqlConnectionPool.CONNECTION_FAILURE));
+                } else {
+                    pending.add(p);
+                }
+                results.add(p.result);
+            }
+            if (!closed && (pending.size() == serialNumbers.size() || pending.size() >= maxBatchSize)) {
+                notifyAll();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Sends whatever is pending without waiting for the batch window to close.
+     */
+    synchronized void flush() {
+        if (!pending.isEmpty()) {
+            flushRequested = true;
+            notifyAll();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Pending> batch;
+            synchronized (this) {
+                try {
+                    while (pending.isEmpty() && !closed) {
+                        wait();
+                    }
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    long deadline = pending.get(0).submittedAt + maxDelayMillis;
+                    while (pending.size() < maxBatchSize && !flushRequested && !closed) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                int size = Math.min(pending.size(), maxBatchSize);
+                // Don't leave part of a panel for the next query
+                while (size < pending.size() && size < MAX_BATCH_SIZE && pending.get(size).panel != null
+                        && pending.get(size).panel == pending.get(size - 1).panel) {
+                    size++;
+                }
+                batch = new ArrayList<>(pending.subList(0, size));
+                pending.subList(0, size).clear();
+                flushRequested = flushRequested && !pending.isEmpty();
+            }
+            resolve(batch);
+        }
+    }
+
+    private void resolve(List<Pending> batch) {
+        List<String> serialNumbers = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            serialNumbers.add(p.serialNumber);
+        }
+
+        if (!breaker.allowRequest()) {
+            SQLException open = new CircuitBreaker.OpenException("Database");
+            for (Pending p : batch) {
+                p.result.completeExceptionally(open);
+            }
+            return;
+        }
+
+        SqlConnectionPool pool = sqlPool;
+        try (SqlConnectionPool.PooledConnection sqlConn = pool.borrow()) {
+            try {
+                List<String> toPrefetch = new ArrayList<>();
+                Map<String, SerialLookupCache.Lookup> results = lookupCache.loadAll(sqlConn, serialNumbers,
+                        toPrefetch);
+                breaker.recordSuccess();
+                for (Pending p : batch) {
+                    p.result.complete(results.get(p.serialNumber));
+                }
+                if (!toPrefetch.isEmpty()) {
+                    prefetch(pool, toPrefetch);
+                }
+            } catch (SQLException e) {
+                if (SqlConnectionPool.isConnectionFailure(e)) {
+                    // Don't hand the connection back out
+                    sqlConn.invalidate();
+                }
+                throw e;
+            }
+        } catch (SQLException | RuntimeException e) {
+            boolean connectionFailure = e instanceof SQLException
+                    && SqlConnectionPool.isConnectionFailure((SQLException) e);
+            // A rejected query still means the database is answering
+            if (connectionFailure) {
+                breaker.recordFailure();
+            } else {
+                breaker.recordSuccess();
+            }
+            if (!connectionFailure && batch.size() > 1) {
+                // Most likely one bad serial number; don't fail the rest of the batch with it
+                logger.accept("Batch lookup of " + batch.size() + " serial numbers failed, retrying them one at a time: "
+                        + e.getMessage());
+                for (Pending p : batch) {
+                    resolve(Collections.singletonList(p));
+                }
+                return;
+            }
+            logger.accept("Batch lookup of " + batch.size() + " serial numbers failed: " + e.getMessage());
+            for (Pending p : batch) {
+                p.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void prefetch(SqlConnectionPool pool, List<String> orderIds) {
+        try {
+            prefetcher.execute(() -> {
+                // Leave the database alone while lookups are failing
+                if (breaker.getState() == CircuitBreaker.State.CLOSED) {
+                    lookupCache.prefetchOrders(pool, orderIds);
+                } else {
+                    lookupCache.releasePrefetch(orderIds);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            lookupCache.releasePrefetch(orderIds);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        prefetcher.shutdownNow();
+    }
+}
@@ -0,0 +1,86 @@
+package parser;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * The engine counters for one machine profile, kept alongside the totals in
+ * {@link EngineMetrics}. {@code fileLatency} is the time from submission to
+ * archive for this machine's files only.
+ */
+class MachineMetrics implements MachineMetricsMBean {
+
+    final String machine;
+    final AtomicLong filesProcessed = new AtomicLong();
+    final AtomicLong filesFailed = new AtomicLong();
+    final AtomicLong unknownSideRejects = new AtomicLong();
+    final AtomicLong xmlErrors = new AtomicLong();
+    final AtomicLong recordsJournaled = new AtomicLong();
+    final AtomicLong recordsReplayed = new AtomicLong();
+    final AtomicLong duplicatesSkipped = new AtomicLong();
+    // Files picked up but not yet archived
+    final AtomicInteger inFlight = new AtomicInteger();
+    // Files waiting in the input folder, as last counted by the machine's drainer
+    volatile IntSupplier inputBacklog = () -> 0;
+    final LatencyHistogram fileLatency = new LatencyHistogram();
+
+    MachineMetrics(String machine) {
+        this.machine = machine;
+    }
+
+    @Override
+    public long getFilesProcessed() {
+        return filesProcessed.get();
+    }
+
+    @Override
+    public long getFilesFailed() {
+        return filesFailed.get();
+    }
+
+    @Override
+    public long getUnknownSideRejects() {
+        return unknownSideRejects.get();
+    }
+
+    @Override
+    public long getXmlErrors() {
+        return xmlErrors.get();
+    }
+
+    @Override
+    public long getRecordsJournaled() {
+        return recordsJournaled.get();
+    }
+
+    @Override
+    public long getRecordsReplayed() {
+        return recordsReplayed.get();
+    }
+
+    @Override
+    public long getDuplicatesSkipped() {
+        return duplicatesSkipped.get();
+    }
+
+    @Override
+    public int getInputBacklog() {
+        return inputBacklog.getAsInt();
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public double getFileP50Millis() {
+        return fileLatency.getP50Millis();
+    }
+
+    @Override
+    public double getFileP99Millis() {
+        return fileLatency.getP99Millis();
+    }
+}
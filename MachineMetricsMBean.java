@@ -0,0 +1,30 @@
+package parser;
+
+/**
+ * JMX view of one machine's counters, registered as
+ * {@code parser:type=MachineMetrics,name=<machine>}.
+ */
+public interface MachineMetricsMBean {
+
+    long getFilesProcessed();
+
+    long getFilesFailed();
+
+    long getUnknownSideRejects();
+
+    long getXmlErrors();
+
+    long getRecordsJournaled();
+
+    long getRecordsReplayed();
+
+    long getDuplicatesSkipped();
+
+    int getInputBacklog();
+
+    int getInFlight();
+
+    double getFileP50Millis();
+
+    double getFileP99Millis();
+}
@@ -0,0 +1,125 @@
+package parser;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * One AOI machine served by the engine: the folder its CSV files arrive in,
+ * where its GenericTester output and archived CSV files go, and its operation
+ * IDs. With {@code PanelArray=true} each CSV file is a whole multi-up panel,
+ * with a Barcode and Result row per block.
+ *
+ * Several machines are declared with {@code Machines=AOI-01,AOI-02} and keys
+ * prefixed with {@code Machine.<name>.}, for example
+ * {@code Machine.AOI-01.InputFolderPath}. A key a machine leaves out is taken
+ * from the plain key, so settings they share, such as OutputPath, need only be
+ * given once. Without {@code Machines} the plain keys describe a single
+ * machine named by MachineName, as before.
+ */
+class MachineProfile {
+
+    final String name;
+    final String inputFolderPath;
+    final String outFolderPath;
+    final String backupFolderPath;
+    final String topOperationId;
+    final String bottomOperationId;
+    final String operationDuration;
+    final boolean panelArray;
+    final Path outDir;
+
+    // Set by the engine while the profile is in use
+    volatile BacklogDrainer drainer;
+    volatile MachineMetrics metrics;
+    // Null when processed files are moved to the backup folder one by one
+    volatile CsvArchive archive;
+    // Threads picking up this machine's files, and the flag that stops them
+    final List<Thread> threads = new ArrayList<>();
+    volatile boolean retired;
+
+    private MachineProfile(String name, Properties prop, String prefix) {
+        this.name = name;
+        this.inputFolderPath = property(prop, prefix, "InputFolderPath");
+        this.outFolderPath = property(prop, prefix, "OutputPath");
+        this.backupFolderPath = property(prop, prefix, "BackupFolderPath");
+        this.topOperationId = property(prop, prefix, "TopOperationId");
+        this.bottomOperationId = property(prop, prefix, "BottomOperationId");
+        this.operationDuration = property(prop, prefix, "OperationDuration");
+        String panel = property(prop, prefix, "PanelArray");
+        this.panelArray = panel != null && Boolean.parseBoolean(panel.trim());
+
+        if (inputFolderPath == null || inputFolderPath.trim().isEmpty()) {
+            throw new IllegalArgumentException("'InputFolderPath' is missing for machine " + name + ".");
+        }
+        if (outFolderPath == null || outFolderPath.trim().isEmpty()) {
+            throw new IllegalArgumentException("'OutputPath' is missing for machine " + name + ".");
+        }
+        this.outDir = Paths.get(outFolderPath);
+    }
+
+    /**
+     * Reads the machine profiles from the configuration, in the order they are
+     * listed. Throws IllegalArgumentException if a profile is incomplete or two
+     * machines share a name or an input folder.
+     */
+    static List<MachineProfile> fromProperties(Properties prop) {
+        List<MachineProfile> profiles = new ArrayList<>();
+        String machines = prop.getProperty("Machines", "").trim();
+        if (machines.isEmpty()) {
+            profiles.add(new MachineProfile(prop.getProperty("MachineName", "Unknown"), prop, null));
+            return profiles;
+        }
+
+        Set<String> names = new HashSet<>();
+        Set<Path> inputFolders = new HashSet<>();
+        for (String name : machines.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!names.add(name)) {
+                throw new IllegalArgumentException("Machine " + name + " is listed twice in 'Machines'.");
+            }
+            MachineProfile profile = new MachineProfile(name, prop, "Machine." + name + ".");
+            if (!inputFolders.add(Paths.get(profile.inputFolderPath).toAbsolutePath().normalize())) {
+                throw new IllegalArgumentException("Machine " + name + " uses the same input folder as another machine: "
+                        + profile.inputFolderPath);
+            }
+            profiles.add(profile);
+        }
+        if (profiles.isEmpty()) {
+            throw new IllegalArgumentException("'Machines' does not name any machine.");
+        }
+        return profiles;
+    }
+
+    private static String property(Properties prop, String prefix, String key) {
+        String value = prefix != null ? prop.getProperty(prefix + key) : null;
+        return value != null ? value : prop.getProperty(key);
+    }
+
+    /**
+     * Whether the other profile describes the same machine with the same
+     * folders and operation settings, so a reload can keep this one running.
+     */
+    boolean sameSettings(MachineProfile other) {
+        return name.equals(other.name) && Objects.equals(inputFolderPath, other.inputFolderPath)
+                && Objects.equals(outFolderPath, other.outFolderPath)
+                && Objects.equals(backupFolderPath, other.backupFolderPath)
+                && Objects.equals(topOperationId, other.topOperationId)
+                && Objects.equals(bottomOperationId, other.bottomOperationId)
+                && Objects.equals(operationDuration, other.operationDuration)
+                && panelArray == other.panelArray;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
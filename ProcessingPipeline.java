@@ -0,0 +1,252 @@
+package parser;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Chain of stages connected by bounded queues. Each stage runs its own number of
+ * workers; a worker takes whatever is queued (up to the stage's batch size),
+ * runs the stage handler and passes the jobs it returns on to the next stage.
+ * A full queue blocks the stage feeding it, so a slow stage pushes back all the
+ * way to {@link #submit(Object)}.
+ *
+ * Workers run on virtual threads when the JVM has them (Java 21+) and virtual
+ * threads are requested, otherwise on ordinary daemon threads.
+ *
+ * A running stage can be given more or fewer workers and a different batch
+ * size with {@link #resize}. Workers that are no longer needed leave once they
+ * have handed on their current batch, so no job is dropped.
+ *
+ * A batch whose handler throws goes to the pipeline's failure handler instead
+ * of the next stage, so the jobs in it can be released.
+ */
+class ProcessingPipeline<T> {
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final ThreadFactory threadFactory;
+    private final Consumer<String> logger;
+    private final Consumer<List<T>> failed;
+    private volatile boolean accepting = true;
+
+    private class Stage {
+        final String name;
+        int workers;
+        volatile int maxBatch;
+        final Function<List<T>, List<T>> handler;
+        final BlockingQueue<T> queue;
+        final AtomicInteger liveWorkers = new AtomicInteger();
+        // Workers asked to leave that have not left yet
+        final AtomicInteger retiring = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>();
+        Stage previous;
+        Stage next;
+
+        Stage(String name, int workers, int queueCapacity, int maxBatch, Function<List<T>, List<T>> handler) {
+            this.name = name;
+            this.workers = Math.max(1, workers);
+            this.maxBatch = Math.max(1, maxBatch);
+            this.handler = handler;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        }
+    }
+
+    ProcessingPipeline(boolean virtualThreads, Consumer<String> logger, Consumer<List<T>> failed) {
+        this.logger = logger;
+        this.failed = failed;
+        ThreadFactory factory = virtualThreads ? virtualThreadFactory() : null;
+        if (factory == null) {
+            factory = r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            };
+        }
+        this.threadFactory = factory;
+    }
+
+    /**
+     * Adds a stage. The handler gets between one and {@code maxBatch} jobs and
+     * returns the ones that should continue to the next stage.
+     */
+    ProcessingPipeline<T> stage(String name, int workers, int queueCapacity, int maxBatch,
+                                Function<List<T>, List<T>> handler) {
+        stages.add(new Stage(name, workers, queueCapacity, maxBatch, handler));
+        return this;
+    }
+
+    void start() {
+        List<Thread> started = new ArrayList<>();
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            stage.next = i + 1 < stages.size() ? stages.get(i + 1) : null;
+            stage.previous = i > 0 ? stages.get(i - 1) : null;
+            synchronized (stage) {
+                for (int w = 0; w < stage.workers; w++) {
+                    started.add(newWorker(stage));
+                }
+            }
+        }
+        for (Thread t : started) {
+            t.start();
+        }
+    }
+
+    private Thread newWorker(Stage stage) {
+        Thread t = threadFactory.newThread(() -> runWorker(stage));
+        t.setName("pipeline-" + stage.name + "-" + stage.threads.size());
+        stage.liveWorkers.incrementAndGet();
+        stage.threads.add(t);
+        return t;
+    }
+
+    /**
+     * Changes the number of workers and the batch size of a running stage.
+     * Extra workers start at once; surplus ones finish their current batch
+     * first.
+     */
+    void resize(String name, int workers, int maxBatch) {
+        for (Stage stage : stages) {
+            if (!stage.name.equals(name)) {
+                continue;
+            }
+            stage.maxBatch = Math.max(1, maxBatch);
+            List<Thread> started = new ArrayList<>();
+            synchronized (stage) {
+                int target = Math.max(1, workers);
+                int change = target - stage.workers;
+                stage.workers = target;
+                if (change < 0) {
+                    stage.retiring.addAndGet(-change);
+                }
+                for (; change > 0; change--) {
+                    // Keep a worker that was about to leave rather than start another
+                    if (stage.retiring.getAndUpdate(n -> n > 0 ? n - 1 : n) > 0) {
+                        continue;
+                    }
+                    started.add(newWorker(stage));
+                }
+            }
+            for (Thread t : started) {
+                t.start();
+            }
+            return;
+        }
+        throw new IllegalArgumentException("No pipeline stage named " + name);
+    }
+
+    /**
+     * Queues a job for the first stage, blocking while that stage is full.
+     */
+    void submit(T job) throws InterruptedException {
+        if (!accepting) {
+            throw new IllegalStateException("Pipeline is shutting down.");
+        }
+        stages.get(0).queue.put(job);
+    }
+
+    /**
+     * Number of jobs waiting in all stage queues.
+     */
+    int backlog() {
+        int total = 0;
+        for (Stage stage : stages) {
+            total += stage.queue.size();
+        }
+        return total;
+    }
+
+    private void runWorker(Stage stage) {
+        Stage previous = stage.previous;
+        Stage next = stage.next;
+        List<T> batch = new ArrayList<>();
+        try {
+            while (true) {
+                if (stage.retiring.get() > 0 && stage.retiring.getAndUpdate(n -> n > 0 ? n - 1 : n) > 0) {
+                    return;
+                }
+                T first = stage.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    boolean upstreamDone = previous == null ? !accepting : previous.liveWorkers.get() == 0;
+                    if (upstreamDone && stage.queue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+
+                batch.clear();
+                batch.add(first);
+                stage.queue.drainTo(batch, stage.maxBatch - 1);
+
+                List<T> out;
+                try {
+                    out = stage.handler.apply(batch);
+                } catch (RuntimeException e) {
+                    logger.accept("Unexpected error in " + stage.name + " stage: " + e);
+                    e.printStackTrace();
+                    failed.accept(new ArrayList<>(batch));
+                    continue;
+                }
+
+                if (next != null && out != null) {
+                    for (T job : out) {
+                        next.queue.put(job);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stage.liveWorkers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Stops accepting jobs and lets everything already queued run to the end of
+     * the pipeline. Workers still busy after {@code timeoutMillis} are interrupted.
+     */
+    void shutdown(long timeoutMillis) {
+        accepting = false;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Stage stage : stages) {
+            List<Thread> threads;
+            synchronized (stage) {
+                threads = new ArrayList<>(stage.threads);
+            }
+            for (Thread t : threads) {
+                long remaining = deadline - System.currentTimeMillis();
+                try {
+                    if (remaining > 0) {
+                        t.join(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (t.isAlive()) {
+                    logger.accept("Pipeline stage " + stage.name + " did not drain in time, interrupting.");
+                    t.interrupt();
+                }
+            }
+        }
+    }
+
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            // Thread.ofVirtual().factory(), looked up reflectively so this still runs on Java 17
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
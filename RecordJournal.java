@@ -0,0 +1,422 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only local journal of records that could not be enriched because the
+ * database was unavailable, so their GenericTester output can be produced once
+ * it is back.
+ *
+ * Records are written one per line with a CRC32, into segment files
+ * journal-NNNNNNNN.log, and forced to disk before {@link #append} returns.
+ * Replay progress is kept as a byte offset in a matching .pos file that is
+ * forced after every record, so after a crash at most the record being
+ * replayed is replayed again. A segment is deleted once it has been replayed
+ * completely and is no longer being appended to. Each run appends to a new
+ * segment, so a line torn by a crash is only ever at the end of an old one.
+ */
+class RecordJournal implements AutoCloseable {
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String POSITION_SUFFIX = ".pos";
+    private static final int READ_CHUNK = 64 * 1024;
+
+    /**
+     * One journaled record: the board as parsed plus the timestamp it was
+     * tested at, which its output must keep when it is replayed later, and the
+     * machine it came from.
+     */
+    static class Entry {
+        final AOIParserEngine.DataRecord record;
+        final String dtTime;
+        final String sourceFile;
+        final String machine;
+        private Path segment;
+        private long endOffset;
+
+        Entry(AOIParserEngine.DataRecord record, String dtTime, String sourceFile, String machine) {
+            this.record = record;
+            this.dtTime = dtTime;
+            this.sourceFile = sourceFile;
+            this.machine = machine;
+        }
+    }
+
+    private final Path dir;
+    private volatile long maxSegmentBytes;
+    private final Consumer<String> logger;
+    private final AtomicLong pending = new AtomicLong();
+
+    private final Object appendLock = new Object();
+    private FileChannel appendChannel;
+    private Path appendSegment;
+    private long appendSize;
+    private long nextSequence = 1;
+
+    // Owned by the replaying thread
+    private Path positionSegment;
+    private FileChannel positionChannel;
+
+    RecordJournal(Path dir, long maxSegmentBytes, Consumer<String> logger) throws IOException {
+        this.dir = dir;
+        this.maxSegmentBytes = Math.max(READ_CHUNK, maxSegmentBytes);
+        this.logger = logger;
+        Files.createDirectories(dir);
+
+        for (Path segment : segments()) {
+            nextSequence = Math.max(nextSequence, sequence(segment) + 1);
+            pending.addAndGet(countLines(segment, readPosition(segment)));
+        }
+        openSegment();
+    }
+
+    /**
+     * Number of records appended and not yet marked done, including those left
+     * over from earlier runs.
+     */
+    long pending() {
+        return pending.get();
+    }
+
+    /**
+     * Applies to the segment being appended to as well.
+     */
+    void setMaxSegmentBytes(long maxSegmentBytes) {
+        this.maxSegmentBytes = Math.max(READ_CHUNK, maxSegmentBytes);
+    }
+
+    /**
+     * Writes the entries and forces them to disk. On failure none of them are
+     * in the journal.
+     */
+    void append(List<Entry> entries) throws IOException {
+        StringBuilder sb = new StringBuilder(entries.size() * 160);
+        for (Entry entry : entries) {
+            encode(entry, sb);
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        synchronized (appendLock) {
+            if (appendSize >= maxSegmentBytes) {
+                openSegment();
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    appendChannel.write(buffer);
+                }
+                appendChannel.force(false);
+            } catch (IOException e) {
+                // Don't leave half a batch for the next append to be glued onto
+                try {
+                    appendChannel.truncate(appendSize);
+                } catch (IOException ignored) {
+                }
+                throw e;
+            }
+            appendSize += bytes.length;
+        }
+        pending.addAndGet(entries.size());
+    }
+
+    /**
+     * Returns up to {@code max} entries, oldest first, starting at the first one
+     * not yet marked done. Reading does not consume them; only {@link #markDone} does.
+     */
+    List<Entry> readBatch(int max) throws IOException {
+        List<Entry> out = new ArrayList<>();
+        for (Path segment : segments()) {
+            boolean current;
+            synchronized (appendLock) {
+                current = segment.equals(appendSegment);
+            }
+            long position = readPosition(segment);
+            long size = Files.size(segment);
+
+            int before = out.size();
+            position = readSegment(segment, position, size, current, max, out);
+            if (out.size() >= max) {
+                break;
+            }
+            if (!current && out.size() == before && position >= size) {
+                deleteSegment(segment);
+            } else if (!out.isEmpty()) {
+                // Entries are handed back one segment at a time
+                break;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Records that {@code entry}, and every entry before it, has been replayed.
+     */
+    void markDone(Entry entry) throws IOException {
+        writePosition(entry.segment, entry.endOffset);
+        pending.decrementAndGet();
+    }
+
+    /**
+     * Adds the segment's entries from {@code position} on to {@code out} and
+     * returns the offset reading stopped at, or {@code size} if all that is left
+     * of an old segment is a torn write.
+     */
+    private long readSegment(Path segment, long position, long size, boolean current, int max, List<Entry> out)
+            throws IOException {
+        int before = out.size();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            byte[] buf = new byte[READ_CHUNK];
+            while (position < size && out.size() < max) {
+                int len = (int) Math.min(buf.length, size - position);
+                ByteBuffer buffer = ByteBuffer.wrap(buf, 0, len);
+                while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+                    // keep reading
+                }
+                len = buffer.position();
+
+                int lineStart = 0;
+                for (int i = 0; i < len && out.size() < max; i++) {
+                    if (buf[i] != '\n') {
+                        continue;
+                    }
+                    Entry entry = decode(buf, lineStart, i);
+                    long lineEnd = position + i + 1;
+                    if (entry != null) {
+                        entry.segment = segment;
+                        entry.endOffset = lineEnd;
+                        out.add(entry);
+                    } else if (out.isEmpty()) {
+                        logger.accept("Skipping corrupt record in journal " + segment.getFileName() + " at offset "
+                                + (position + lineStart) + ".");
+                        writePosition(segment, lineEnd);
+                        pending.decrementAndGet();
+                    } else {
+                        // Hand back what comes before it; it is skipped once they are done
+                        return position + lineStart;
+                    }
+                    lineStart = i + 1;
+                }
+
+                if (lineStart == 0) {
+                    if (len == buf.length) {
+                        buf = new byte[buf.length * 2];
+                        continue;
+                    }
+                    // No complete line left. In an old segment that is a write torn by a crash.
+                    if (!current && out.size() == before) {
+                        logger.accept("Discarding incomplete record at the end of journal " + segment.getFileName() + ".");
+                        return size;
+                    }
+                    return position;
+                }
+                position += lineStart;
+            }
+            return position;
+        }
+    }
+
+    private void openSegment() throws IOException {
+        if (appendChannel != null) {
+            appendChannel.close();
+        }
+        appendSegment = dir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX));
+        appendChannel = FileChannel.open(appendSegment, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        appendSize = appendChannel.size();
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        // Zero-padded sequence numbers sort by name
+        segments.sort(null);
+        return segments;
+    }
+
+    private static long sequence(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Path positionFile(Path segment) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + POSITION_SUFFIX);
+    }
+
+    private long readPosition(Path segment) throws IOException {
+        Path file = positionFile(segment);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        return bytes.length < Long.BYTES ? 0 : ByteBuffer.wrap(bytes).getLong();
+    }
+
+    private void writePosition(Path segment, long position) throws IOException {
+        if (!segment.equals(positionSegment)) {
+            closePositionChannel();
+            positionChannel = FileChannel.open(positionFile(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            positionSegment = segment;
+        }
+        // Eight bytes at offset zero, overwritten in place so there is never a moment without a position
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, position);
+        while (buffer.hasRemaining()) {
+            positionChannel.write(buffer, buffer.position());
+        }
+        positionChannel.force(false);
+    }
+
+    private void deleteSegment(Path segment) throws IOException {
+        if (segment.equals(positionSegment)) {
+            closePositionChannel();
+        }
+        Files.deleteIfExists(positionFile(segment));
+        Files.deleteIfExists(segment);
+    }
+
+    private void closePositionChannel() {
+        if (positionChannel != null) {
+            try {
+                positionChannel.close();
+            } catch (IOException ignored) {
+            }
+            positionChannel = null;
+            positionSegment = null;
+        }
+    }
+
+    private static long countLines(Path segment, long position) throws IOException {
+        long lines = 0;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK);
+            channel.position(position);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    if (buffer.get() == '\n') {
+                        lines++;
+                    }
+                }
+                buffer.clear();
+            }
+        }
+        return lines;
+    }
+
+    private static void encode(Entry entry, StringBuilder sb) {
+        AOIParserEngine.DataRecord r = entry.record;
+        int start = sb.length();
+        sb.append('2');
+        for (String field : new String[]{r.serialNumber, r.status, r.program, r.side, r.operationId,
+                entry.dtTime, entry.sourceFile, entry.machine}) {
+            sb.append('\t');
+            escape(field, sb);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(sb.substring(start).getBytes(StandardCharsets.UTF_8));
+        sb.append('\t').append(Long.toHexString(crc.getValue())).append('\n');
+    }
+
+    private static Entry decode(byte[] buf, int start, int end) {
+        int crcTab = end - 1;
+        while (crcTab >= start && buf[crcTab] != '\t') {
+            crcTab--;
+        }
+        if (crcTab < start) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf, start, crcTab - start);
+        String expected = new String(buf, crcTab + 1, end - crcTab - 1, StandardCharsets.UTF_8);
+        if (!Long.toHexString(crc.getValue()).equals(expected)) {
+            return null;
+        }
+
+        String[] fields = new String(buf, start, crcTab - start, StandardCharsets.UTF_8).split("\t", -1);
+        if (fields.length != 9 || !"2".equals(fields[0])) {
+            return null;
+        }
+        String dtTime = unescape(fields[6]);
+        String sourceFile = unescape(fields[7]);
+        String machine = unescape(fields[8]);
+        if (dtTime == null || sourceFile == null || machine == null) {
+            return null;
+        }
+        AOIParserEngine.DataRecord r = new AOIParserEngine.DataRecord();
+        r.serialNumber = unescape(fields[1]);
+        r.status = unescape(fields[2]);
+        r.program = unescape(fields[3]);
+        r.side = unescape(fields[4]);
+        r.operationId = unescape(fields[5]);
+        return new Entry(r, dtTime, sourceFile, machine);
+    }
+
+    private static void escape(String value, StringBuilder sb) {
+        if (value == null) {
+            sb.append("\\0");
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String value) {
+        if ("\\0".equals(value)) {
+            return null;
+        }
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char n = value.charAt(++i);
+                sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        synchronized (appendLock) {
+            try {
+                appendChannel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        closePositionChannel();
+    }
+}
@@ -0,0 +1,78 @@
+package parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out queued items one source at a time, in turn, so a source with a long
+ * queue cannot hold back the others. Each source keeps its own FIFO; a source
+ * that has just been served goes to the back of the line.
+ *
+ * The engine puts one of these in front of the shared pipeline, with one
+ * source per machine, so a machine clearing a backlog shares the pipeline
+ * with the live boards of every other machine.
+ */
+class RoundRobinQueue<K, T> {
+
+    private final Map<K, ArrayDeque<T>> queues = new HashMap<>();
+    // Sources that have items waiting, next to be served first
+    private final ArrayDeque<K> turns = new ArrayDeque<>();
+    private int size;
+
+    synchronized void add(K source, T item) {
+        ArrayDeque<T> queue = queues.computeIfAbsent(source, k -> new ArrayDeque<>());
+        if (queue.isEmpty()) {
+            turns.addLast(source);
+        }
+        queue.addLast(item);
+        size++;
+        notifyAll();
+    }
+
+    /**
+     * Takes the next item from the source whose turn it is, waiting up to
+     * {@code timeout} for one. Returns null if nothing arrived in time.
+     */
+    synchronized T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long remaining;
+        while (size == 0) {
+            remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+
+        K source = turns.pollFirst();
+        ArrayDeque<T> queue = queues.get(source);
+        T item = queue.pollFirst();
+        size--;
+        if (!queue.isEmpty()) {
+            turns.addLast(source);
+        }
+        return item;
+    }
+
+    /**
+     * Removes and returns everything still queued.
+     */
+    synchronized List<T> drain() {
+        List<T> items = new ArrayList<>(size);
+        for (K source : turns) {
+            items.addAll(queues.get(source));
+        }
+        queues.clear();
+        turns.clear();
+        size = 0;
+        return items;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+}
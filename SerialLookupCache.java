@@ -0,0 +1,284 @@
+package parser;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process cache of SerialNumber to (OrderNumber, BlockNo).
+ *
+ * Boards of one work order arrive in long runs, so the first miss for an order
+ * loads every serial of that order in one query and the following boards are
+ * answered from memory. That query runs after the lookup that found the order
+ * has been answered (see {@link #prefetchOrders}), so it never delays a board. Entries expire after {@code ttlMillis} and the least
+ * recently used ones are dropped once {@code maxEntries} is reached. Serials that
+ * are not in the database yet are never cached, and those not traced to a panel
+ * block yet (no BlockNo) only for {@link #UNTRACED_TTL_MILLIS}, so the block
+ * number is picked up soon after the trace catches up.
+ */
+class SerialLookupCache {
+
+    static final String ORDER_PREFETCH_SQL = "SELECT t.SerialNumber, w.[OrderNumber], p.BlockNo " +
+            "FROM [ValorQM].[dbo].[tUnitItem] t " +
+            "LEFT JOIN [ValorMDM].[dbo].[WorkOrder] w ON t.OrderID = w.ID " +
+            "LEFT JOIN [ValorPRO].[dbo].[PanelBlockTrace] p ON t.SerialNumber = p.PcbID OR t.SerialNumber = p.BlockID " +
+            "WHERE t.OrderID = ?";
+
+    // Parameter list is filled in per batch size, see batchLookupSql
+    static final String BATCH_LOOKUP_SQL = "SELECT t.SerialNumber, t.OrderID, w.[OrderNumber], p.BlockNo " +
+            "FROM [ValorQM].[dbo].[tUnitItem] t " +
+            "LEFT JOIN [ValorMDM].[dbo].[WorkOrder] w ON t.OrderID = w.ID " +
+            "LEFT JOIN [ValorPRO].[dbo].[PanelBlockTrace] p ON t.SerialNumber = p.PcbID OR t.SerialNumber = p.BlockID " +
+            "WHERE t.SerialNumber IN (%s)";
+
+    static final long UNTRACED_TTL_MILLIS = 60_000;
+
+    static class Lookup {
+        final String orderNumber;
+        final String blockNo;
+        final long loadedAt;
+
+        Lookup(String orderNumber, String blockNo, long loadedAt) {
+            this.orderNumber = orderNumber;
+            this.blockNo = blockNo;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private volatile int maxEntries;
+    private volatile long ttlMillis;
+    private volatile boolean prefetch;
+
+    private final LinkedHashMap<String, Lookup> entries;
+    // OrderID -> time the order was bulk loaded
+    private final Map<String, Long> prefetchedOrders = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong prefetchedRows = new AtomicLong();
+    private final AtomicLong prefetchFailures = new AtomicLong();
+
+    SerialLookupCache(int maxEntries, long ttlMillis, boolean prefetch) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMillis = ttlMillis;
+        this.prefetch = prefetch;
+        this.entries = new LinkedHashMap<String, Lookup>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Lookup> eldest) {
+                return size() > SerialLookupCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Applies new limits without dropping what is cached. If the cache is now
+     * too big, the least recently used entries go at once.
+     */
+    synchronized void configure(int maxEntries, long ttlMillis, boolean prefetch) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMillis = ttlMillis;
+        this.prefetch = prefetch;
+        Iterator<String> eldest = entries.keySet().iterator();
+        while (entries.size() > this.maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Returns the cached lookup for the serial number, or null on a miss.
+     */
+    Lookup getIfPresent(String serialNumber) {
+        Lookup cached = get(serialNumber);
+        if (cached != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return cached;
+    }
+
+    /**
+     * Resolves many serial numbers with one set-based query and caches the results.
+     * Serial numbers unknown to the database are absent from the returned map.
+     * If prefetching is on, the orders not loaded within the TTL are claimed
+     * and added to {@code toPrefetch} for {@link #prefetchOrders}.
+     */
+    Map<String, Lookup> loadAll(SqlConnectionPool.PooledConnection sqlConn, Collection<String> serialNumbers,
+                                Collection<String> toPrefetch) throws SQLException {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(serialNumbers));
+        Map<String, Lookup> results = new HashMap<>();
+        if (distinct.isEmpty()) {
+            return results;
+        }
+
+        // Round the parameter count up to a power of two so only a handful of
+        // statement shapes get prepared; the padding repeats the last serial
+        int params = Integer.highestOneBit(distinct.size());
+        if (params < distinct.size()) {
+            params <<= 1;
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, String> orderIds = new HashMap<>();
+        PreparedStatement pst = sqlConn.prepare(batchLookupSql(params));
+        for (int i = 0; i < params; i++) {
+            pst.setString(i + 1, distinct.get(Math.min(i, distinct.size() - 1)));
+        }
+        try (ResultSet rs = pst.executeQuery()) {
+            while (rs.next()) {
+                String serialNumber = rs.getString("SerialNumber");
+                if (serialNumber != null && !results.containsKey(serialNumber)) {
+                    results.put(serialNumber, new Lookup(rs.getString("OrderNumber"), rs.getString("BlockNo"), now));
+                    orderIds.put(serialNumber, rs.getString("OrderID"));
+                }
+            }
+        }
+
+        synchronized (this) {
+            entries.putAll(results);
+        }
+
+        if (prefetch) {
+            for (String orderId : new LinkedHashSet<>(orderIds.values())) {
+                if (orderId != null && claimPrefetch(orderId)) {
+                    toPrefetch.add(orderId);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Bulk loads orders claimed by {@link #loadAll} on a connection of its own.
+     * Best effort: an order that fails to load is counted and left for a later
+     * lookup to claim again.
+     */
+    void prefetchOrders(SqlConnectionPool sqlPool, Collection<String> orderIds) {
+        List<String> remaining = new ArrayList<>(orderIds);
+        try (SqlConnectionPool.PooledConnection sqlConn = sqlPool.borrow()) {
+            while (!remaining.isEmpty()) {
+                String orderId = remaining.get(0);
+                try {
+                    prefetchOrder(sqlConn, orderId);
+                } catch (SQLException e) {
+                    if (SqlConnectionPool.isConnectionFailure(e)) {
+                        sqlConn.invalidate();
+                        throw e;
+                    }
+                    releasePrefetch(Collections.singletonList(orderId));
+                }
+                remaining.remove(0);
+            }
+        } catch (SQLException | RuntimeException e) {
+            releasePrefetch(remaining);
+        }
+    }
+
+    /**
+     * Gives up the claims on orders that will not be prefetched after all.
+     */
+    synchronized void releasePrefetch(Collection<String> orderIds) {
+        for (String orderId : orderIds) {
+            prefetchedOrders.remove(orderId);
+        }
+        prefetchFailures.addAndGet(orderIds.size());
+    }
+
+    private static String batchLookupSql(int params) {
+        StringBuilder placeholders = new StringBuilder(params * 2);
+        for (int i = 0; i < params; i++) {
+            placeholders.append(i == 0 ? "?" : ",?");
+        }
+        return String.format(BATCH_LOOKUP_SQL, placeholders);
+    }
+
+    private void prefetchOrder(SqlConnectionPool.PooledConnection sqlConn, String orderId) throws SQLException {
+        long now = System.currentTimeMillis();
+        Map<String, Lookup> loaded = new HashMap<>();
+
+        PreparedStatement pst = sqlConn.prepare(ORDER_PREFETCH_SQL);
+        pst.setString(1, orderId);
+        try (ResultSet rs = pst.executeQuery()) {
+            while (rs.next()) {
+                // Keep the first row per serial, matching the single lookup
+                loaded.putIfAbsent(rs.getString("SerialNumber"),
+                        new Lookup(rs.getString("OrderNumber"), rs.getString("BlockNo"), now));
+            }
+        }
+
+        synchronized (this) {
+            for (Map.Entry<String, Lookup> entry : loaded.entrySet()) {
+                if (entry.getKey() != null) {
+                    entries.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        prefetches.incrementAndGet();
+        prefetchedRows.addAndGet(loaded.size());
+    }
+
+    private synchronized Lookup get(String serialNumber) {
+        Lookup lookup = entries.get(serialNumber);
+        if (lookup == null) {
+            return null;
+        }
+        long ttl = lookup.blockNo == null ? Math.min(ttlMillis, UNTRACED_TTL_MILLIS) : ttlMillis;
+        if (System.currentTimeMillis() - lookup.loadedAt > ttl) {
+            entries.remove(serialNumber);
+            return null;
+        }
+        return lookup;
+    }
+
+    private synchronized boolean claimPrefetch(String orderId) {
+        long now = System.currentTimeMillis();
+        Long loadedAt = prefetchedOrders.get(orderId);
+        if (loadedAt != null && now - loadedAt <= ttlMillis) {
+            return false;
+        }
+        prefetchedOrders.put(orderId, now);
+        if (prefetchedOrders.size() > 1024) {
+            prefetchedOrders.values().removeIf(t -> now - t > ttlMillis);
+        }
+        return true;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getPrefetches() {
+        return prefetches.get();
+    }
+
+    String statsSummary() {
+        long h = hits.get();
+        long m = misses.get();
+        long total = h + m;
+        int size;
+        synchronized (this) {
+            size = entries.size();
+        }
+        return "Lookup cache: hits=" + h + ", misses=" + m
+                + ", hitRate=" + (total == 0 ? 0 : (h * 100 / total)) + "%"
+                + ", prefetches=" + prefetches.get() + ", prefetchedRows=" + prefetchedRows.get()
+                + ", prefetchFailures=" + prefetchFailures.get()
+                + ", size=" + size;
+    }
+}
@@ -0,0 +1,313 @@
+package parser;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Small bounded pool of long-lived JDBC connections.
+ *
+ * Connections are validated when borrowed, closed after sitting idle for
+ * {@code idleTimeoutMillis}, and each keeps its own prepared statements so the
+ * lookup query is only prepared once per connection. When the server cannot be
+ * reached, new connection attempts back off exponentially up to
+ * {@code maxBackoffMillis} and borrowers fail fast in the meantime.
+ *
+ * Every failure to hand out a connection is reported with SQLState 08001 so
+ * callers can tell it apart from a failing query.
+ *
+ * Everything but the URL can be changed on a live pool with
+ * {@link #configure}; connections already borrowed are not affected. A pool
+ * replaced by one for another URL is {@link #retire() retired}: it closes
+ * itself once its borrowed connections are back.
+ */
+class SqlConnectionPool implements AutoCloseable {
+
+    static final String CONNECTION_FAILURE = "08001";
+
+    /**
+     * Returns true if the error says the database could not be reached, as
+     * opposed to a query it rejected. Only the former is worth retrying later.
+     */
+    static boolean isConnectionFailure(SQLException e) {
+        return e instanceof SQLTransientConnectionException || e instanceof SQLRecoverableException
+                || (e.getSQLState() != null && e.getSQLState().startsWith("08"));
+    }
+
+    private final String url;
+    private volatile long idleTimeoutMillis;
+    private volatile int validationTimeoutSeconds;
+    private volatile long borrowTimeoutMillis;
+    private volatile long maxBackoffMillis;
+    private final Consumer<String> logger;
+
+    private final Permits permits;
+    private int maxSize;
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final ScheduledExecutorService evictor;
+
+    private long backoffMillis;
+    private long nextConnectAttempt;
+    private volatile boolean closed;
+    private final AtomicInteger borrowed = new AtomicInteger();
+    private volatile boolean retiring;
+
+    SqlConnectionPool(String url, int maxSize, long idleTimeoutMillis, int validationTimeoutSeconds,
+                      long borrowTimeoutMillis, long maxBackoffMillis, Consumer<String> logger) {
+        this.url = url;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.logger = logger;
+        this.maxSize = Math.max(1, maxSize);
+        this.permits = new Permits(this.maxSize);
+
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sql-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Semaphore that can also give up permits, so the pool can shrink while
+     * connections are out.
+     */
+    private static class Permits extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        Permits(int permits) {
+            super(permits, true);
+        }
+
+        void reduce(int reduction) {
+            reducePermits(reduction);
+        }
+    }
+
+    /**
+     * Applies new limits to the running pool. A smaller pool takes effect as
+     * borrowed connections come back.
+     */
+    void configure(int maxSize, long idleTimeoutMillis, int validationTimeoutSeconds, long borrowTimeoutMillis,
+                   long maxBackoffMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        synchronized (this) {
+            int target = Math.max(1, maxSize);
+            if (target > this.maxSize) {
+                permits.release(target - this.maxSize);
+            } else if (target < this.maxSize) {
+                permits.reduce(this.maxSize - target);
+            }
+            this.maxSize = target;
+        }
+    }
+
+    /**
+     * Borrows a validated connection. Close the returned handle to give it back.
+     */
+    PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLTransientConnectionException("Connection pool is closed.", CONNECTION_FAILURE);
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("Timed out waiting for a pooled database connection.",
+                        CONNECTION_FAILURE);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted waiting for a pooled database connection.",
+                    CONNECTION_FAILURE, e);
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = pollIdle()) != null) {
+                if (isValid(pooled)) {
+                    borrowed.incrementAndGet();
+                    return pooled;
+                }
+                logger.accept("Discarding invalid pooled database connection.");
+                pooled.closeQuietly();
+            }
+            pooled = new PooledConnection(connect());
+            borrowed.incrementAndGet();
+            return pooled;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private synchronized PooledConnection pollIdle() {
+        return idle.pollFirst();
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return !pooled.broken && pooled.connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now < nextConnectAttempt) {
+                throw new SQLTransientConnectionException("Database unavailable, next reconnect attempt in "
+                        + (nextConnectAttempt - now) + " ms.", CONNECTION_FAILURE);
+            }
+        }
+        try {
+            Connection connection = DriverManager.getConnection(url);
+            synchronized (this) {
+                if (backoffMillis > 0) {
+                    logger.accept("Database connection re-established.");
+                }
+                backoffMillis = 0;
+                nextConnectAttempt = 0;
+            }
+            return connection;
+        } catch (SQLException e) {
+            synchronized (this) {
+                backoffMillis = backoffMillis == 0 ? 1000 : Math.min(backoffMillis * 2, maxBackoffMillis);
+                nextConnectAttempt = System.currentTimeMillis() + backoffMillis;
+            }
+            logger.accept("Database connection failed, retrying in " + backoffMillis + " ms: " + e.getMessage());
+            throw new SQLTransientConnectionException(e.getMessage(), CONNECTION_FAILURE, e);
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        boolean keep = !closed && !pooled.broken;
+        if (keep) {
+            pooled.lastUsed = System.currentTimeMillis();
+            synchronized (this) {
+                idle.addFirst(pooled);
+            }
+        } else {
+            pooled.closeQuietly();
+        }
+        permits.release();
+        if (borrowed.decrementAndGet() == 0 && retiring) {
+            close();
+        }
+    }
+
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        synchronized (this) {
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                PooledConnection pooled = it.next();
+                if (pooled.lastUsed < cutoff) {
+                    it.remove();
+                    pooled.closeQuietly();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the pool once the connections still borrowed from it are back.
+     */
+    void retire() {
+        retiring = true;
+        if (borrowed.get() == 0) {
+            close();
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        synchronized (this) {
+            for (PooledConnection pooled : idle) {
+                pooled.closeQuietly();
+            }
+            idle.clear();
+        }
+    }
+
+    /**
+     * A borrowed connection. Statements obtained through {@link #prepare(String)}
+     * belong to the connection and must not be closed by the caller.
+     */
+    class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private long lastUsed;
+        private boolean broken;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        Connection connection() {
+            return connection;
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement pst = statements.get(sql);
+            if (pst == null || pst.isClosed()) {
+                pst = connection.prepareStatement(sql);
+                statements.put(sql, pst);
+            }
+            pst.clearParameters();
+            return pst;
+        }
+
+        /**
+         * Marks the connection as unusable so it is closed instead of returned to the pool.
+         */
+        void invalidate() {
+            broken = true;
+        }
+
+        private void closeQuietly() {
+            for (PreparedStatement pst : statements.values()) {
+                try {
+                    pst.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+            }
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package parser;
+
+/**
+ * JMX view of one processing stage's latency, registered as
+ * {@code parser:type=StageLatency,name=<stage>}.
+ */
+public interface StageLatencyMBean {
+
+    long getCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+}
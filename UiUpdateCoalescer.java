@@ -0,0 +1,124 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+
+/**
+ * Batches log lines and board field updates coming from worker threads and
+ * applies them to the window at a fixed frame rate, instead of scheduling one
+ * EDT task per message. Only the latest board values are kept between frames,
+ * and the log area is trimmed to the last {@code maxLines} lines so it does not
+ * grow for the lifetime of the process.
+ */
+class UiUpdateCoalescer {
+
+    private final JTextArea logTextArea;
+    private final JTextField txtSerialNumber, txtStatus, txtProgram, txtWorkorder, txtSide;
+    private final Timer timer;
+
+    private volatile int maxLines;
+    private volatile ArrayBlockingQueue<String> pendingLines;
+    private final AtomicReference<String[]> latestBoard = new AtomicReference<>();
+
+    UiUpdateCoalescer(JTextArea logTextArea, JTextField txtSerialNumber, JTextField txtStatus,
+                      JTextField txtProgram, JTextField txtWorkorder, JTextField txtSide,
+                      int refreshMillis, int maxLines) {
+        this.logTextArea = logTextArea;
+        this.txtSerialNumber = txtSerialNumber;
+        this.txtStatus = txtStatus;
+        this.txtProgram = txtProgram;
+        this.txtWorkorder = txtWorkorder;
+        this.txtSide = txtSide;
+        this.maxLines = Math.max(1, maxLines);
+        this.pendingLines = new ArrayBlockingQueue<>(this.maxLines);
+
+        timer = new Timer(Math.max(10, refreshMillis), e -> flush());
+        timer.setCoalesce(true);
+        timer.start();
+    }
+
+    /**
+     * Changes the frame interval and the number of log lines kept. Call on the EDT.
+     */
+    void configure(int refreshMillis, int maxLines) {
+        timer.setDelay(Math.max(10, refreshMillis));
+        if (maxLines != this.maxLines) {
+            this.maxLines = Math.max(1, maxLines);
+            ArrayBlockingQueue<String> old = pendingLines;
+            pendingLines = new ArrayBlockingQueue<>(this.maxLines);
+            String line;
+            while ((line = old.poll()) != null) {
+                appendLine(line);
+            }
+        }
+    }
+
+    /**
+     * Queues a line for the log area. Safe to call from any thread.
+     */
+    void appendLine(String message) {
+        ArrayBlockingQueue<String> queue = pendingLines;
+        // Lines older than the last maxLines would be trimmed off anyway
+        while (!queue.offer(message)) {
+            queue.poll();
+        }
+    }
+
+    /**
+     * Records the board to show in the fields on the next frame. Safe to call from any thread.
+     */
+    void showBoard(String serialNumber, String status, String program, String workorder, String side) {
+        latestBoard.set(new String[]{serialNumber, status, program, workorder, side});
+    }
+
+    void stop() {
+        timer.stop();
+    }
+
+    private void flush() {
+        String[] board = latestBoard.getAndSet(null);
+        if (board != null) {
+            txtSerialNumber.setText(board[0]);
+            txtStatus.setText(board[1]);
+            txtProgram.setText(board[2]);
+            txtWorkorder.setText(board[3]);
+            txtSide.setText(board[4]);
+        }
+
+        List<String> lines = new ArrayList<>();
+        pendingLines.drainTo(lines);
+        if (lines.isEmpty()) {
+            return;
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        logTextArea.append(text.toString());
+        trimToMaxLines();
+        logTextArea.setCaretPosition(logTextArea.getDocument().getLength());
+    }
+
+    private void trimToMaxLines() {
+        Element root = logTextArea.getDocument().getDefaultRootElement();
+        // The document always ends with an empty line after the last newline
+        int excess = root.getElementCount() - 1 - maxLines;
+        if (excess <= 0) {
+            return;
+        }
+        int end = root.getElement(excess - 1).getEndOffset();
+        try {
+            logTextArea.getDocument().remove(0, end);
+        } catch (BadLocationException e) {
+            logTextArea.setText("");
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Collects boards that share a machine, RecipeId, WorkOrderId and OperationId
+ * into one GenericTester document, so the MES import share gets one file per
+ * group instead of one per board. Each board keeps its own BarcodeId,
+ * StatusCode, test time and Sequence. The blocks of one panel always stay
+ * together in the same document.
+ *
+ * A group is written once it holds {@code maxBoards} boards or its first board
+ * has waited {@code windowMillis}, whichever comes first. The items added with
+ * the boards (the engine's jobs) are only handed to {@link Listener#written}
+ * after that, so their CSV files stay in the input folder until the output
+ * that covers them exists.
+ */
+class XmlAggregator<T> implements AutoCloseable {
+
+    /**
+     * Receives the items of a group once its document has been written, with
+     * the file, or once writing it has failed, with the error. Called on the
+     * aggregator's thread.
+     */
+    interface Listener<T> {
+        void written(List<T> items, Path xmlFile, IOException error);
+    }
+
+    private final GenericTesterWriter writer;
+    private final int maxBoards;
+    private final long windowMillis;
+    private final Listener<T> listener;
+    private final Consumer<String> logger;
+
+    // Open groups, oldest first
+    private final Map<List<String>, Group<T>> open = new LinkedHashMap<>();
+    private final List<Group<T>> full = new ArrayList<>();
+    private boolean closed;
+    private final Thread flusher;
+
+    private static class Group<T> {
+        final MachineProfile machine;
+        final long openedAt = System.currentTimeMillis();
+        final List<AOIParserEngine.DataRecord> boards = new ArrayList<>();
+        final List<String> testTimes = new ArrayList<>();
+        final List<T> items = new ArrayList<>();
+
+        Group(MachineProfile machine) {
+            this.machine = machine;
+        }
+    }
+
+    XmlAggregator(GenericTesterWriter writer, int maxBoards, long windowMillis, Listener<T> listener,
+                  Consumer<String> logger) {
+        this.writer = writer;
+        this.maxBoards = Math.max(1, maxBoards);
+        this.windowMillis = Math.max(0, windowMillis);
+        this.listener = listener;
+        this.logger = logger;
+
+        flusher = new Thread(this::run, "xml-aggregator");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Adds the boards of one CSV file, a single board or every block of a
+     * panel, to the group of the first. Returns false, leaving them to the
+     * caller, if the aggregator has been closed.
+     */
+    boolean add(MachineProfile machine, List<AOIParserEngine.DataRecord> boards, String testTime, T item) {
+        AOIParserEngine.DataRecord first = boards.get(0);
+        List<String> key = Arrays.asList(machine.name, first.program, first.workOrderDetail, first.operationId);
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            Group<T> group = open.get(key);
+            if (group == null) {
+                group = new Group<>(machine);
+                open.put(key, group);
+                if (open.size() == 1) {
+                    // The flusher may be waiting with no deadline
+                    notifyAll();
+                }
+            }
+            group.boards.addAll(boards);
+            group.testTimes.addAll(Collections.nCopies(boards.size(), testTime));
+            group.items.add(item);
+            if (group.boards.size() >= maxBoards) {
+                open.remove(key);
+                full.add(group);
+                notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes every open group and stops the aggregator's thread.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Group<T>> due;
+            synchronized (this) {
+                try {
+                    while (full.isEmpty() && !closed) {
+                        if (open.isEmpty()) {
+                            wait();
+                            continue;
+                        }
+                        long remaining = open.values().iterator().next().openedAt + windowMillis
+                                - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                due = new ArrayList<>(full);
+                full.clear();
+                long now = System.currentTimeMillis();
+                Iterator<Group<T>> it = open.values().iterator();
+                while (it.hasNext()) {
+                    Group<T> group = it.next();
+                    if (!closed && now - group.openedAt < windowMillis) {
+                        break;
+                    }
+                    it.remove();
+                    due.add(group);
+                }
+                if (due.isEmpty() && closed) {
+                    return;
+                }
+            }
+            write(due);
+        }
+    }
+
+    private void write(List<Group<T>> groups) {
+        List<Group<T>> added = new ArrayList<>(groups.size());
+        List<Path> files = null;
+        IOException commitError = null;
+
+        try (GenericTesterWriter.Batch batch = writer.newBatch()) {
+            for (Group<T> group : groups) {
+                try {
+                    batch.add(group.machine.outDir, group.boards, group.testTimes, group.machine.operationDuration);
+                    added.add(group);
+                } catch (IOException e) {
+                    notifyWritten(group, null, e);
+                }
+            }
+            try {
+                files = batch.commit();
+            } catch (IOException e) {
+                commitError = e;
+            }
+        }
+
+        for (int i = 0; i < added.size(); i++) {
+            notifyWritten(added.get(i), commitError == null ? files.get(i) : null, commitError);
+        }
+    }
+
+    private void notifyWritten(Group<T> group, Path xmlFile, IOException error) {
+        try {
+            listener.written(group.items, xmlFile, error);
+        } catch (RuntimeException e) {
+            // Must not stop the thread that every other group depends on
+            logger.accept("Error handling written GenericTester file: " + e);
+        }
+    }
+}
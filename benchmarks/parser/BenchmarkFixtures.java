@@ -0,0 +1,99 @@
+package parser;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Test data and engine setup shared by the benchmarks.
+ */
+final class BenchmarkFixtures {
+
+    static final String MACHINE_NAME = "Benchmark";
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * An AOI export with the usual header keys followed by {@code defectRows}
+     * per-component rows.
+     */
+    static byte[] csv(String serialNumber, String result, String program, int defectRows) {
+        StringBuilder sb = new StringBuilder(128 + defectRows * 64);
+        sb.append("Machine,AOI-01\r\n");
+        sb.append("Program Name,").append(program).append("\r\n");
+        sb.append("Barcode,").append(serialNumber).append("\r\n");
+        sb.append("Result,").append(result).append("\r\n");
+        sb.append("Inspection Time,2024-01-01 08:00:00\r\n");
+        sb.append("Component,Part,X,Y,Angle,Result,Defect\r\n");
+        for (int i = 0; i < defectRows; i++) {
+            sb.append("R").append(i).append(",RES-0402-10K,").append(i % 300).append(".25,")
+                    .append(i % 200).append(".75,90,").append(i % 50 == 0 ? "NG,Missing" : "Good,").append("\r\n");
+        }
+        return sb.toString().getBytes(Charset.defaultCharset());
+    }
+
+    /**
+     * Writes a configuration into {@code root} that points every folder below it
+     * and the database at {@link ValorStubDriver}. The input folder is left empty
+     * so the engine's own watcher stays idle.
+     */
+    static File config(Path root, boolean logEnable) throws IOException {
+        for (String dir : new String[]{"in", "out", "backup", "log", "staging"}) {
+            Files.createDirectories(root.resolve(dir));
+        }
+        File configFile = root.resolve("AOIParser.properties").toFile();
+        try (Writer writer = new FileWriter(configFile)) {
+            writer.write("LogEnable=" + logEnable + "\n");
+            writer.write("LogPath=" + escape(root.resolve("log")) + "\n");
+            writer.write("InputFolderPath=" + escape(root.resolve("in")) + "\n");
+            writer.write("OutputPath=" + escape(root.resolve("out")) + "\n");
+            writer.write("BackupFolderPath=" + escape(root.resolve("backup")) + "\n");
+            writer.write("TopOperationId=OP-TOP\n");
+            writer.write("BottomOperationId=OP-BOT\n");
+            writer.write("OperationDuration=30\n");
+            writer.write("ConnectionString=" + ValorStubDriver.URL + "valor\n");
+            writer.write("MachineName=" + MACHINE_NAME + "\n");
+            // Benchmarks the segment archive path, not the default Move
+            writer.write("BackupMode=Segment\n");
+        }
+        return configFile;
+    }
+
+    static AOIParserEngine startEngine(File configFile) throws Exception {
+        ValorStubDriver.register();
+        AOIParserEngine engine = new AOIParserEngine(new AOIParserEngine.Listener() {
+        });
+        if (!engine.loadConfigFromFile(configFile)) {
+            throw new IllegalStateException("Benchmark configuration did not load: " + configFile);
+        }
+        return engine;
+    }
+
+    static void clear(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static String escape(Path path) {
+        // Properties treats backslashes as escapes
+        return path.toAbsolutePath().toString().replace("\\", "\\\\");
+    }
+}
@@ -0,0 +1,28 @@
+package parser;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every benchmark in this folder with the GC profiler, so each result
+ * comes with its allocation rate (gc.alloc.rate.norm is bytes per operation).
+ *
+ * Run with {@code mvn -Pbenchmarks compile exec:exec}, which compiles these
+ * sources together with the application sources and runs this class. An
+ * optional argument, {@code -Dbenchmark=Parse} through Maven, narrows the run
+ * to matching benchmarks.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "parser\\..*Benchmark";
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,86 @@
+package parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One board through parse, lookup, XML and archive, against
+ * {@link ValorStubDriver}. The file is handed to the engine the way the folder
+ * watch hands it over and the benchmark waits until the pipeline has archived
+ * it, so the time includes the queue hand-offs between the stages. Serial
+ * numbers cycle through the stub's table, so after the first pass over a work
+ * order lookups come from the cache, as they do on a running line.
+ *
+ * The CSV is written before each invocation; that setup is not timed but does
+ * limit how small a per-board cost this benchmark can resolve.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Param({"false", "true"})
+    public boolean logEnable;
+
+    private Path root;
+    private AOIParserEngine engine;
+    private MachineProfile machine;
+    private File csvFile;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("aoi-e2e-bench");
+        engine = BenchmarkFixtures.startEngine(BenchmarkFixtures.config(root, logEnable));
+        machine = engine.machineNamed(BenchmarkFixtures.MACHINE_NAME);
+    }
+
+    @Setup(Level.Invocation)
+    public void dropFile() throws IOException {
+        String serialNumber = ValorStubDriver.serial(next++ % ValorStubDriver.SERIAL_COUNT);
+        csvFile = root.resolve("staging").resolve(serialNumber + ".csv").toFile();
+        Files.write(csvFile.toPath(), BenchmarkFixtures.csv(serialNumber, "Good", "MAIN_TOP_V2", 30));
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearOutput() throws IOException {
+        BenchmarkFixtures.clear(root.resolve("out"));
+        BenchmarkFixtures.clear(root.resolve("backup"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        engine.stop();
+        BenchmarkFixtures.deleteTree(root);
+    }
+
+    @Benchmark
+    public void processFile() {
+        long processed = engine.getMetrics().getFilesProcessed();
+        if (!engine.submit(machine, csvFile, null)) {
+            throw new IllegalStateException("File was not accepted: " + csvFile);
+        }
+        while (engine.getMetrics().getFilesProcessed() == processed) {
+            Thread.onSpinWait();
+        }
+    }
+}
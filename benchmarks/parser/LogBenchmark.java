@@ -0,0 +1,57 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a log call as seen by a processing thread, with file logging on.
+ * The multi-threaded variant shows contention on the shared log buffer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogBenchmark {
+
+    private Path root;
+    private AOIParserEngine engine;
+
+    @Setup
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("aoi-log-bench");
+        engine = BenchmarkFixtures.startEngine(BenchmarkFixtures.config(root, true));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        engine.stop();
+        BenchmarkFixtures.deleteTree(root);
+    }
+
+    @Benchmark
+    public void log() {
+        engine.log("Fetched WorkOrder: WO12345, Sequence: 3");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void logFourThreads() {
+        engine.log("Fetched WorkOrder: WO12345, Sequence: 3");
+    }
+}
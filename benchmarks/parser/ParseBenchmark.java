@@ -0,0 +1,88 @@
+package parser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * extractDataFromCSV on a small export and on a multi-megabyte one with
+ * per-component defect rows. {@code splitParser} is the original
+ * readLine/split loop, kept as the baseline to compare against.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    // ~2 KB and ~5 MB
+    @Param({"30", "80000"})
+    public int defectRows;
+
+    private Path root;
+    private File csvFile;
+    private AOIParserEngine engine;
+
+    @Setup
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("aoi-parse-bench");
+        engine = BenchmarkFixtures.startEngine(BenchmarkFixtures.config(root, false));
+        csvFile = root.resolve("staging").resolve("board.csv").toFile();
+        Files.write(csvFile.toPath(), BenchmarkFixtures.csv("SN000001", "Good", "MAIN_TOP_V2", defectRows));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        engine.stop();
+        BenchmarkFixtures.deleteTree(root);
+    }
+
+    @Benchmark
+    public AOIParserEngine.DataRecord scanner() throws Exception {
+        return engine.extractDataFromCSV(csvFile);
+    }
+
+    @Benchmark
+    public String[] splitParser() throws IOException {
+        String[] values = new String[3];
+        try (BufferedReader reader = new BufferedReader(new FileReader(csvFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] row = line.split(",", -1);
+                if (row.length < 2) continue;
+                switch (row[0].trim()) {
+                    case "Barcode":
+                        values[0] = row[1].trim();
+                        break;
+                    case "Result":
+                        values[1] = row[1].trim();
+                        break;
+                    case "Program Name":
+                        values[2] = row[1].trim();
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        return values;
+    }
+}
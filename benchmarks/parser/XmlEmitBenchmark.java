@@ -0,0 +1,75 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * createXMLFile for one enriched board, the call journal replay writes its
+ * files with. Output files are removed after every iteration so the output
+ * folder does not grow across the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlEmitBenchmark {
+
+    private Path root;
+    private AOIParserEngine engine;
+    private MachineProfile machine;
+    private AOIParserEngine.DataRecord dataRecord;
+    private List<AOIParserEngine.DataRecord> boards;
+    private int counter;
+
+    @Setup
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("aoi-xml-bench");
+        engine = BenchmarkFixtures.startEngine(BenchmarkFixtures.config(root, false));
+        machine = engine.machineNamed(BenchmarkFixtures.MACHINE_NAME);
+
+        dataRecord = new AOIParserEngine.DataRecord();
+        dataRecord.status = "PASS";
+        dataRecord.program = "MAIN_TOP_V2";
+        dataRecord.side = "TOP";
+        dataRecord.operationId = "OP-TOP";
+        dataRecord.workOrderDetail = "WO12345";
+        dataRecord.sequence = "3";
+        boards = Collections.singletonList(dataRecord);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearOutput() throws IOException {
+        BenchmarkFixtures.clear(root.resolve("out"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        engine.stop();
+        BenchmarkFixtures.deleteTree(root);
+    }
+
+    @Benchmark
+    public void createXMLFile() {
+        // Distinct serials so files are not overwritten within the same second
+        dataRecord.serialNumber = "SN" + (counter++);
+        engine.createXMLFile(machine, boards, "2024-01-01T08:00:00");
+    }
+}
@@ -0,0 +1,223 @@
+package parser;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * In-process stand-in for the ValorQM/ValorMDM/ValorPRO databases, registered
+ * under {@code jdbc:valorstub:}. It answers the engine's serial, batch and work
+ * order queries from an in-memory table so the end-to-end benchmark measures
+ * our side of a lookup without a network round-trip, and the tests can run
+ * lookups without a database.
+ *
+ * Serial number {@code i} ({@link #serial}) belongs to OrderID
+ * {@code i / BOARDS_PER_ORDER}, order number "WO" + OrderID, and block
+ * {@code i % 24 + 1}. After {@link #reset()} the parameters of every query are
+ * recorded in {@link #queries}, and {@link #onQuery} can fail or hold up a query.
+ *
+ * An embedded SQL database cannot be used here because the queries address
+ * three databases with [db].[dbo].[table] names, which H2 and Derby reject.
+ */
+class ValorStubDriver implements Driver {
+
+    static final String URL = "jdbc:valorstub:";
+    static final int SERIAL_COUNT = 10000;
+    static final int BOARDS_PER_ORDER = 1000;
+
+    private static final ValorStubDriver INSTANCE = new ValorStubDriver();
+
+    // SerialNumber -> {OrderID, OrderNumber, BlockNo}
+    private final Map<String, String[]> units = new HashMap<>();
+
+    final List<Set<String>> queries = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean recording;
+    /**
+     * Called with the parameters of each query before it is answered. A
+     * non-null result fails the query with that exception.
+     */
+    volatile Function<Set<String>, SQLException> onQuery = params -> null;
+
+    private ValorStubDriver() {
+        for (int i = 0; i < SERIAL_COUNT; i++) {
+            int order = i / BOARDS_PER_ORDER;
+            units.put(serial(i), new String[]{String.valueOf(order), "WO" + order, String.valueOf(i % 24 + 1)});
+        }
+    }
+
+    static String serial(int i) {
+        return String.format("SN%06d", i);
+    }
+
+    static synchronized ValorStubDriver register() throws SQLException {
+        if (!Collections.list(DriverManager.getDrivers()).contains(INSTANCE)) {
+            DriverManager.registerDriver(INSTANCE);
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Forgets the recorded queries and the query hook, and starts recording.
+     */
+    void reset() {
+        queries.clear();
+        onQuery = params -> null;
+        recording = true;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        boolean[] closed = {false};
+        return proxy(Connection.class, (p, m, args) -> {
+            switch (m.getName()) {
+                case "prepareStatement":
+                    return statement((String) args[0]);
+                case "isValid":
+                    return !closed[0];
+                case "isClosed":
+                    return closed[0];
+                case "close":
+                    closed[0] = true;
+                    return null;
+                default:
+                    return unsupported(m.getName());
+            }
+        });
+    }
+
+    private PreparedStatement statement(String sql) {
+        Map<Integer, String> params = new HashMap<>();
+        boolean[] closed = {false};
+        return proxy(PreparedStatement.class, (p, m, args) -> {
+            switch (m.getName()) {
+                case "setString":
+                    params.put((Integer) args[0], (String) args[1]);
+                    return null;
+                case "clearParameters":
+                    params.clear();
+                    return null;
+                case "executeQuery":
+                    Set<String> values = new LinkedHashSet<>(params.values());
+                    if (recording) {
+                        queries.add(values);
+                    }
+                    SQLException error = onQuery.apply(values);
+                    if (error != null) {
+                        throw error;
+                    }
+                    return resultSet(query(sql, params));
+                case "isClosed":
+                    return closed[0];
+                case "close":
+                    closed[0] = true;
+                    return null;
+                default:
+                    return unsupported(m.getName());
+            }
+        });
+    }
+
+    private List<Map<String, String>> query(String sql, Map<Integer, String> params) {
+        List<Map<String, String>> rows = new ArrayList<>();
+        if (sql.contains("WHERE t.OrderID = ?")) {
+            String orderId = params.get(1);
+            for (Map.Entry<String, String[]> unit : units.entrySet()) {
+                if (unit.getValue()[0].equals(orderId)) {
+                    rows.add(row(unit.getKey(), unit.getValue()));
+                }
+            }
+        } else {
+            for (String serialNumber : params.values()) {
+                String[] unit = units.get(serialNumber);
+                if (unit != null) {
+                    rows.add(row(serialNumber, unit));
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static Map<String, String> row(String serialNumber, String[] unit) {
+        Map<String, String> row = new HashMap<>();
+        row.put("SerialNumber", serialNumber);
+        row.put("OrderID", unit[0]);
+        row.put("OrderNumber", unit[1]);
+        row.put("BlockNo", unit[2]);
+        return row;
+    }
+
+    private static ResultSet resultSet(List<Map<String, String>> rows) {
+        int[] index = {-1};
+        return proxy(ResultSet.class, (p, m, args) -> {
+            switch (m.getName()) {
+                case "next":
+                    return ++index[0] < rows.size();
+                case "getString":
+                    return rows.get(index[0]).get((String) args[0]);
+                case "close":
+                    return null;
+                default:
+                    return unsupported(m.getName());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(ValorStubDriver.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object unsupported(String method) throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("Not supported by the Valor stub: " + method);
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(URL);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
@@ -0,0 +1,79 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AOIParserEngineTest {
+
+    @TempDir
+    Path dir;
+
+    private final AOIParserEngine engine = new AOIParserEngine(new AOIParserEngine.Listener() {
+    });
+
+    private File csv(String content) throws Exception {
+        Path file = Files.createTempFile(dir, "board", ".csv");
+        Files.writeString(file, content);
+        return file.toFile();
+    }
+
+    @Test
+    void panelBlocksPairBarcodesWithResultsInOrder() throws Exception {
+        File file = csv("Program Name,MAIN_BOT,\r\n"
+                + "Barcode, SN1 ,\r\n"
+                + "Result,Good,\r\n"
+                + "Barcode,SN2,\r\n"
+                + "Result,NG,\r\n"
+                + "Barcode,SN3\r\n"
+                + "Result,Skip\r\n"
+                + "Component,R1,NG\r\n");
+
+        List<AOIParserEngine.DataRecord> blocks = engine.extractBlocksFromCSV(file);
+
+        assertEquals(3, blocks.size());
+        String[][] expected = {{"SN1", "PASS"}, {"SN2", "FAIL"}, {"SN3", "Skip"}};
+        for (int i = 0; i < expected.length; i++) {
+            AOIParserEngine.DataRecord block = blocks.get(i);
+            assertEquals(expected[i][0], block.serialNumber);
+            assertEquals(expected[i][1], block.status);
+            assertEquals("MAIN_BOT", block.program);
+            assertEquals("Bottom", block.side);
+        }
+    }
+
+    @Test
+    void singleBoardReadsAsOnePanelBlock() throws Exception {
+        File file = csv("Barcode,SN1\nResult,Good\nProgram Name,MAIN_TOP\n");
+
+        List<AOIParserEngine.DataRecord> blocks = engine.extractBlocksFromCSV(file);
+        AOIParserEngine.DataRecord board = engine.extractDataFromCSV(file);
+
+        assertEquals(1, blocks.size());
+        assertEquals(board.serialNumber, blocks.get(0).serialNumber);
+        assertEquals(board.status, blocks.get(0).status);
+        assertEquals(board.program, blocks.get(0).program);
+        assertEquals(board.side, blocks.get(0).side);
+    }
+
+    @Test
+    void panelWithUnpairedBarcodeIsRejected() throws Exception {
+        File file = csv("Program Name,MAIN_TOP\nBarcode,SN1\nResult,Good\nBarcode,SN2\n");
+
+        assertThrows(Exception.class, () -> engine.extractBlocksFromCSV(file));
+    }
+
+    @Test
+    void panelWithoutProgramIsRejected() throws Exception {
+        File file = csv("Barcode,SN1\nResult,Good\n");
+
+        assertThrows(Exception.class, () -> engine.extractBlocksFromCSV(file));
+    }
+}
@@ -0,0 +1,197 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BacklogDrainerTest {
+
+    @TempDir
+    Path dir;
+
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final BlockingQueue<String> submitted = new LinkedBlockingQueue<>();
+    private final List<String> log = new CopyOnWriteArrayList<>();
+    private Thread thread;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        stopped.set(true);
+        if (thread != null) {
+            thread.join(5000);
+        }
+    }
+
+    /**
+     * Writes a CSV file last modified {@code ageSeconds} ago.
+     */
+    private void csv(String name, long ageSeconds) throws Exception {
+        Path file = dir.resolve(name);
+        Files.writeString(file, "Barcode," + name + "\r\n");
+        file.toFile().setLastModified(System.currentTimeMillis() - ageSeconds * 1000);
+    }
+
+    private BacklogDrainer start(long stableMillis, int catchUpThreshold, int batchSize, int maxInFlight,
+                                 Predicate<File> submitter) {
+        return run(new BacklogDrainer(dir, stableMillis, 50, catchUpThreshold,
+                batchSize, maxInFlight, submitter, log::add));
+    }
+
+    private BacklogDrainer run(BacklogDrainer drainer) {
+        thread = new Thread(() -> drainer.run(stopped::get), "backlog-test");
+        thread.setDaemon(true);
+        thread.start();
+        return drainer;
+    }
+
+    /**
+     * Takes each file once, like the pipeline does while a file is in flight.
+     */
+    private Predicate<File> takeOnce() {
+        Set<String> taken = ConcurrentHashMap.newKeySet();
+        return file -> {
+            if (!taken.add(file.getName())) {
+                return false;
+            }
+            submitted.add(file.getName());
+            return true;
+        };
+    }
+
+    @Test
+    void filesAreHandedOverOldestFirstAndNoMoreThanMaxInFlight() throws Exception {
+        csv("c.csv", 100);
+        csv("a.csv", 300);
+        csv("d.csv", 50);
+        csv("b.csv", 200);
+
+        BacklogDrainer drainer = start(1000, 1000, 100, 2, takeOnce());
+
+        assertEquals("a.csv", submitted.poll(5, TimeUnit.SECONDS));
+        assertEquals("b.csv", submitted.poll(5, TimeUnit.SECONDS));
+        assertNull(submitted.poll(300, TimeUnit.MILLISECONDS));
+
+        drainer.completed();
+        assertEquals("c.csv", submitted.poll(5, TimeUnit.SECONDS));
+        assertNull(submitted.poll(300, TimeUnit.MILLISECONDS));
+
+        drainer.completed();
+        assertEquals("d.csv", submitted.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void backlogLargerThanABatchIsDrainedOverSeveralPasses() throws Exception {
+        for (int i = 0; i < 7; i++) {
+            csv("board" + i + ".csv", 1000 - i);
+        }
+        BacklogDrainer[] drainer = new BacklogDrainer[1];
+        drainer[0] = new BacklogDrainer(dir, 1000, 50, 1000, 2, 1, file -> {
+            submitted.add(file.getName());
+            // Processed straight away
+            assertTrue(file.delete());
+            drainer[0].completed();
+            return true;
+        }, log::add);
+        run(drainer[0]);
+
+        List<String> order = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            order.add(submitted.poll(5, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of("board0.csv", "board1.csv", "board2.csv", "board3.csv",
+                "board4.csv", "board5.csv", "board6.csv"), order);
+    }
+
+    @Test
+    void filesStillBeingWrittenAreLeftAlone() throws Exception {
+        csv("fresh.csv", 0);
+        csv("old.csv", 600);
+
+        start(60_000, 1000, 100, 10, takeOnce());
+
+        assertEquals("old.csv", submitted.poll(5, TimeUnit.SECONDS));
+        assertNull(submitted.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void refusedFileDoesNotHoldAnInFlightSlot() throws Exception {
+        csv("a.csv", 300);
+        csv("b.csv", 200);
+
+        Predicate<File> takeOnce = takeOnce();
+        start(1000, 1000, 100, 1, file -> !file.getName().equals("a.csv") && takeOnce.test(file));
+
+        assertEquals("b.csv", submitted.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void passThatHandsOverNothingBacksOff() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            csv("board" + i + ".csv", 600);
+        }
+        AtomicInteger attempts = new AtomicInteger();
+        // Every file already in flight, and more of them than one batch holds
+        run(new BacklogDrainer(dir, 200, 60_000, 1000, 2, 10, file -> {
+            attempts.incrementAndGet();
+            return false;
+        }, log::add));
+
+        Thread.sleep(500);
+        // Two per pass, a pass every 200 ms rather than back to back
+        assertTrue(attempts.get() <= 10, attempts + " attempts");
+    }
+
+    @Test
+    void waitingCountsFilesNotYetHandedOver() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            csv("board" + i + ".csv", 600 - i);
+        }
+        csv("fresh.csv", 0);
+
+        BacklogDrainer drainer = start(60_000, 1000, 100, 2, takeOnce());
+
+        assertNotNull(submitted.poll(5, TimeUnit.SECONDS));
+        assertNotNull(submitted.poll(5, TimeUnit.SECONDS));
+        assertNull(submitted.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(3, drainer.waiting());
+
+        drainer.completed();
+        assertNotNull(submitted.poll(5, TimeUnit.SECONDS));
+        assertNull(submitted.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(2, drainer.waiting());
+    }
+
+    @Test
+    void largeBacklogIsAnnouncedAsCatchUp() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            csv("board" + i + ".csv", 600);
+        }
+
+        start(1000, 2, 100, 10, takeOnce());
+
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(submitted.poll(5, TimeUnit.SECONDS));
+        }
+        assertTrue(log.stream().anyMatch(line -> line.startsWith("Catch-up mode: 3 CSV files waiting")), log.toString());
+    }
+}
@@ -0,0 +1,94 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ConfigFileWatcherTest {
+
+    @TempDir
+    Path dir;
+
+    private File file;
+    private final BlockingQueue<File> reloads = new LinkedBlockingQueue<>();
+    private ConfigFileWatcher watcher;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = dir.resolve("AOIParser.properties").toFile();
+        Files.writeString(file.toPath(), "LogEnable=false\n");
+        file.setLastModified(System.currentTimeMillis() - 60_000);
+        watcher = new ConfigFileWatcher(reloads::add);
+    }
+
+    @AfterEach
+    void tearDown() {
+        watcher.close();
+    }
+
+    private void edit(String content) throws Exception {
+        Files.writeString(file.toPath(), content);
+        // Some file systems only keep whole seconds
+        file.setLastModified(System.currentTimeMillis() + 2000);
+    }
+
+    @Test
+    void unchangedFileIsNotReloaded() throws Exception {
+        watcher.watch(file, 20);
+
+        assertNull(reloads.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void changedFileIsReloadedOnceItHasSettled() throws Exception {
+        watcher.watch(file, 20);
+        edit("LogEnable=true\n");
+
+        assertEquals(file, reloads.poll(5, TimeUnit.SECONDS));
+        // Once per change
+        assertNull(reloads.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void fileStillChangingIsNotReloadedYet() throws Exception {
+        watcher.watch(file, 200);
+        long start = System.currentTimeMillis();
+        edit("LogEnable=true\n");
+
+        // Seen changed on one check and unchanged on the next
+        assertEquals(file, reloads.poll(5, TimeUnit.SECONDS));
+        long waited = System.currentTimeMillis() - start;
+        assertTrue(waited >= 300, "reloaded after " + waited + " ms");
+    }
+
+    @Test
+    void missingFileIsWaitedFor() throws Exception {
+        watcher.watch(file, 20);
+        Files.delete(file.toPath());
+
+        assertNull(reloads.poll(300, TimeUnit.MILLISECONDS));
+        edit("LogEnable=true\n");
+        assertEquals(file, reloads.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void zeroIntervalStopsWatching() throws Exception {
+        watcher.watch(file, 20);
+        watcher.watch(file, 0);
+        edit("LogEnable=true\n");
+
+        assertNull(reloads.poll(300, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,136 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CsvArchiveTest {
+
+    @TempDir
+    Path dir;
+
+    private CsvArchive.Item csv(String name, String serialNumber, String content) throws Exception {
+        Path file = dir.resolve("in").resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+        return new CsvArchive.Item(file.toFile(), serialNumber);
+    }
+
+    private Path backup() {
+        return dir.resolve("backup");
+    }
+
+    @Test
+    void archivedFilesCanBeFoundAndRestored() throws Exception {
+        List<CsvArchive.Item> items = new ArrayList<>();
+        items.add(csv("board1.csv", "SN1", "Barcode,SN1\r\nResult,Good\r\n"));
+        items.add(csv("board2.csv", "SN2", "Barcode,SN2\r\nResult,NG\r\n"));
+        // Longer than a tar header's name field
+        String longName = "x".repeat(150) + ".csv";
+        items.add(csv(longName, null, "Barcode,\r\n"));
+
+        try (CsvArchive archive = new CsvArchive(backup(), 24 * 60, 1 << 20)) {
+            Path segment = archive.append(items);
+            assertTrue(Files.exists(segment));
+        }
+        for (CsvArchive.Item item : items) {
+            assertTrue(item.archived, item.file.getName());
+        }
+
+        List<CsvArchive.Location> bySerial = CsvArchive.find(backup(), "SN2");
+        assertEquals(1, bySerial.size());
+        assertEquals("board2.csv", bySerial.get(0).fileName);
+        assertEquals("Barcode,SN2\r\nResult,NG\r\n",
+                new String(CsvArchive.read(bySerial.get(0)), StandardCharsets.UTF_8));
+
+        List<CsvArchive.Location> byName = CsvArchive.find(backup(), longName);
+        assertEquals(1, byName.size());
+        assertEquals("", byName.get(0).serialNumber);
+        assertArrayEquals("Barcode,\r\n".getBytes(StandardCharsets.UTF_8), CsvArchive.read(byName.get(0)));
+
+        assertTrue(CsvArchive.find(backup(), "SN").isEmpty());
+    }
+
+    @Test
+    void unreadableFileIsSkippedAndTheRestArchived() throws Exception {
+        CsvArchive.Item missing = new CsvArchive.Item(new File(dir.toFile(), "gone.csv"), "SN0");
+        CsvArchive.Item present = csv("board1.csv", "SN1", "Barcode,SN1\r\n");
+
+        try (CsvArchive archive = new CsvArchive(backup(), 24 * 60, 1 << 20)) {
+            archive.append(List.of(missing, present));
+        }
+
+        assertFalse(missing.archived);
+        assertNotNull(missing.error);
+        assertTrue(present.archived);
+        assertTrue(CsvArchive.find(backup(), "SN0").isEmpty());
+        assertEquals(1, CsvArchive.find(backup(), "SN1").size());
+    }
+
+    @Test
+    void reopenedSegmentIsCutBackToItsLastIndexedMember() throws Exception {
+        Path segment;
+        try (CsvArchive archive = new CsvArchive(backup(), 24 * 60, 1 << 20)) {
+            segment = archive.append(List.of(csv("board1.csv", "SN1", "Barcode,SN1\r\n")));
+        }
+        long goodSize = Files.size(segment);
+        Path index = segment.resolveSibling(segment.getFileName().toString().replace(".tar.gz", ".idx"));
+        // A crash in the middle of the next append
+        Files.write(segment, new byte[100], StandardOpenOption.APPEND);
+        Files.write(index, "SN2\tboard2.csv\t".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        Path next;
+        try (CsvArchive archive = new CsvArchive(backup(), 24 * 60, 1 << 20)) {
+            next = archive.append(List.of(csv("board3.csv", "SN3", "Barcode,SN3\r\n")));
+        }
+
+        if (next.equals(segment)) {
+            // Same period: the torn tail was cut off before appending
+            List<CsvArchive.Location> third = CsvArchive.find(backup(), "SN3");
+            assertEquals(goodSize, third.get(0).offset);
+        }
+        assertTrue(CsvArchive.find(backup(), "SN2").isEmpty());
+        assertEquals("Barcode,SN1\r\n",
+                new String(CsvArchive.read(CsvArchive.find(backup(), "SN1").get(0)), StandardCharsets.UTF_8));
+        assertEquals("Barcode,SN3\r\n",
+                new String(CsvArchive.read(CsvArchive.find(backup(), "SN3").get(0)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void fullSegmentRollsOverToANumberedOne() throws Exception {
+        // Incompressible content so the 1 MB minimum segment size is reached
+        byte[] noise = new byte[300 * 1024];
+        new Random(1).nextBytes(noise);
+        List<Path> segments = new ArrayList<>();
+        try (CsvArchive archive = new CsvArchive(backup(), 24 * 60, 1)) {
+            for (int i = 0; i < 6; i++) {
+                Path file = dir.resolve("in").resolve("board" + i + ".csv");
+                Files.createDirectories(file.getParent());
+                Files.write(file, noise);
+                Path segment = archive.append(List.of(new CsvArchive.Item(file.toFile(), "SN" + i)));
+                if (!segments.contains(segment)) {
+                    segments.add(segment);
+                }
+            }
+        }
+
+        assertTrue(segments.size() >= 2, segments.toString());
+        // Newest first
+        assertEquals(segments.get(segments.size() - 1), CsvArchive.find(backup(), "SN5").get(0).segment);
+        assertArrayEquals(noise, CsvArchive.read(CsvArchive.find(backup(), "SN0").get(0)));
+    }
+}
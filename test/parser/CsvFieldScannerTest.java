@@ -0,0 +1,101 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CsvFieldScannerTest {
+
+    private static final String[] KEYS = {"Barcode", "Result", "Program Name"};
+
+    @TempDir
+    Path dir;
+
+    private final CsvFieldScanner scanner = new CsvFieldScanner(KEYS);
+
+    private Path csv(String content) throws Exception {
+        Path file = Files.createTempFile(dir, "board", ".csv");
+        Files.write(file, content.getBytes(Charset.defaultCharset()));
+        return file;
+    }
+
+    /**
+     * The line-by-line parsing the scanner replaced: every line split on
+     * commas, the last value of a key wins.
+     */
+    private static String[] splitParse(Path file) throws Exception {
+        String[] values = new String[KEYS.length];
+        try (BufferedReader reader = Files.newBufferedReader(file, Charset.defaultCharset())) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] row = line.split(",", -1);
+                if (row.length < 2) {
+                    continue;
+                }
+                String key = row[0].trim();
+                for (int k = 0; k < KEYS.length; k++) {
+                    if (KEYS[k].equals(key)) {
+                        values[k] = row[1].trim();
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    @Test
+    void matchesSplitParsing() throws Exception {
+        String longLine = "Comment," + "y".repeat(200_000) + "\r\n";
+        String[] files = {
+            "Barcode,SN1\r\nResult,Good\r\nProgram Name,MAIN_TOP\r\n",
+            "Barcode,SN1\nResult,NG\nProgram Name,MAIN_BOT\n",
+            "Barcode,SN1\rResult,Good\rProgram Name,MAIN_TOP",
+            "  Barcode \t, SN1 ,extra,columns\r\nResult ,\tGood\t\r\n Program Name,MAIN_TOP,x\r\n",
+            "Header\r\n\r\nBarcode\r\nBarcode,\r\nResult,Good\r\nProgram Name,MAIN_TOP\r\n",
+            "Result,Good\r\nBarcode,SN1\r\nBarcode,SN2\r\n" + longLine + "Program Name,MAIN_TOP\r\n",
+            "barcode,lower\r\nBarcodes,SN9\r\nResult,Good\r\n",
+            longLine + "Barcode,SN1\r\n" + longLine + "Result,Good\r\nProgram Name,MAIN_TOP",
+            "",
+        };
+        for (String content : files) {
+            Path file = csv(content);
+            assertArrayEquals(splitParse(file), scanner.scan(file), content.length() > 200
+                    ? content.substring(0, 200) : content);
+        }
+    }
+
+    @Test
+    void keyRepeatedBeforeAllKeysAreFoundKeepsItsLastValue() throws Exception {
+        Path file = csv("Barcode,SN1\r\nBarcode,SN2\r\nResult,Good\r\nProgram Name,MAIN_TOP\r\n");
+
+        assertArrayEquals(new String[]{"SN2", "Good", "MAIN_TOP"}, scanner.scan(file));
+    }
+
+    @Test
+    void keyRepeatedAfterAllKeysAreFoundKeepsItsFirstValue() throws Exception {
+        // Reading stops at Program Name, so the second Result is never seen
+        Path file = csv("Barcode,SN1\r\nResult,Good\r\nProgram Name,MAIN_TOP\r\nResult,NG\r\n");
+
+        assertArrayEquals(new String[]{"SN1", "Good", "MAIN_TOP"}, scanner.scan(file));
+        assertEquals("NG", splitParse(file)[1]);
+    }
+
+    @Test
+    void scanAllKeepsEveryValueInFileOrder() throws Exception {
+        Path file = csv("Program Name,MAIN_TOP\r\nBarcode,SN1\r\nResult,Good\r\nBarcode,SN2\r\nResult,NG\r\n");
+
+        List<List<String>> values = scanner.scanAll(file);
+
+        assertEquals(List.of("SN1", "SN2"), values.get(0));
+        assertEquals(List.of("Good", "NG"), values.get(1));
+        assertEquals(List.of("MAIN_TOP"), values.get(2));
+    }
+}
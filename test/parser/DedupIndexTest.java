@@ -0,0 +1,97 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DedupIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<String> log = new ArrayList<>();
+
+    @Test
+    void checkingDoesNotRecord() throws Exception {
+        try (DedupIndex index = new DedupIndex(dir.resolve("dedup.idx"), 64, 1000, log::add)) {
+            long fp = DedupIndex.fingerprint("SN1", "MAIN_TOP", "Good");
+            assertFalse(index.contains(fp, 0));
+            assertFalse(index.contains(fp, 10));
+            index.record(fp, 10);
+            assertTrue(index.contains(fp, 20));
+        }
+    }
+
+    @Test
+    void entriesExpireAfterRetention() throws Exception {
+        try (DedupIndex index = new DedupIndex(dir.resolve("dedup.idx"), 64, 1000, log::add)) {
+            long fp = DedupIndex.fingerprint("SN1", "MAIN_TOP", "Good");
+            index.record(fp, 0);
+            assertTrue(index.contains(fp, 999));
+            assertFalse(index.contains(fp, 1000));
+            index.record(fp, 1500);
+            assertTrue(index.contains(fp, 2000));
+
+            index.setRetentionMillis(100);
+            assertFalse(index.contains(fp, 2000));
+        }
+    }
+
+    @Test
+    void fingerprintSeparatesFields() {
+        assertNotEquals(DedupIndex.fingerprint("ab", "c"), DedupIndex.fingerprint("a", "bc"));
+        assertNotEquals(DedupIndex.fingerprint("SN1", null), DedupIndex.fingerprint("SN1", ""));
+        assertEquals(DedupIndex.fingerprint("SN1", "P", "Good"), DedupIndex.fingerprint("SN1", "P", "Good"));
+    }
+
+    @Test
+    void fullWindowsGiveUpOldestEntryAndNeverReportNewFingerprints() throws Exception {
+        // 64 slots, so the probe windows wrap past the end of the table many times
+        try (DedupIndex index = new DedupIndex(dir.resolve("dedup.idx"), 64, 1_000_000, log::add)) {
+            for (int i = 0; i < 10_000; i++) {
+                long fp = DedupIndex.fingerprint("SN" + i, "P", "Good");
+                assertFalse(index.contains(fp, i), "SN" + i);
+                index.record(fp, i);
+                assertTrue(index.contains(fp, i), "SN" + i);
+            }
+            // The earliest entries were given up for later ones
+            assertFalse(index.contains(DedupIndex.fingerprint("SN0", "P", "Good"), 10_000));
+        }
+    }
+
+    @Test
+    void entriesSurviveReopening() throws Exception {
+        Path file = dir.resolve("dedup.idx");
+        long fp = DedupIndex.fingerprint("SN1", "MAIN_TOP", "Good");
+        try (DedupIndex index = new DedupIndex(file, 64, 1000, log::add)) {
+            index.record(fp, 0);
+        }
+        try (DedupIndex index = new DedupIndex(file, 64, 1000, log::add)) {
+            assertTrue(index.contains(fp, 10));
+        }
+        assertTrue(log.isEmpty(), log.toString());
+    }
+
+    @Test
+    void differentSizeStartsOver() throws Exception {
+        Path file = dir.resolve("dedup.idx");
+        long fp = DedupIndex.fingerprint("SN1", "MAIN_TOP", "Good");
+        try (DedupIndex index = new DedupIndex(file, 64, 1000, log::add)) {
+            index.record(fp, 0);
+        }
+        try (DedupIndex index = new DedupIndex(file, 256, 1000, log::add)) {
+            assertFalse(index.contains(fp, 10));
+        }
+        assertEquals(1, log.size());
+        assertEquals(64 + 256 * 16, Files.size(file));
+    }
+}
@@ -0,0 +1,53 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EngineConfigTest {
+
+    @TempDir
+    Path dir;
+
+    private File config(String extra) throws Exception {
+        Path file = dir.resolve("config.properties");
+        Files.writeString(file, "InputFolderPath=" + dir.resolve("in").toString().replace('\\', '/') + "\n"
+                + "OutputPath=" + dir.resolve("out").toString().replace('\\', '/') + "\n"
+                + "BackupFolderPath=" + dir.resolve("backup").toString().replace('\\', '/') + "\n"
+                + "TopOperationId=OP-TOP\n"
+                + "BottomOperationId=OP-BOT\n"
+                + "OperationDuration=30\n"
+                + "MachineName=Line1\n"
+                + extra);
+        return file.toFile();
+    }
+
+    @Test
+    void backupKeepsOneFilePerBoardUnlessSegmentsAreAskedFor() throws Exception {
+        assertFalse(EngineConfig.load(config("")).isSegmentBackup());
+        assertTrue(EngineConfig.load(config("BackupMode=Segment\n")).isSegmentBackup());
+        assertThrows(IllegalArgumentException.class, () -> EngineConfig.load(config("BackupMode=Zip\n")));
+    }
+
+    @Test
+    void uiSettingsAreParsedWithTheRest() throws Exception {
+        EngineConfig config = EngineConfig.load(config("UiRefreshMillis=250\nUiMaxLogLines=50\n"));
+
+        assertEquals(250, config.uiRefreshMillis);
+        assertEquals(50, config.uiMaxLogLines);
+    }
+
+    @Test
+    void malformedUiSettingRejectsTheWholeFile() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> EngineConfig.load(config("UiRefreshMillis=fast\n")));
+        assertThrows(IllegalArgumentException.class, () -> EngineConfig.load(config("UiMaxLogLines=0\n")));
+    }
+}
@@ -0,0 +1,84 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GenericTesterWriterTest {
+
+    @TempDir
+    Path dir;
+
+    private final GenericTesterWriter writer = new GenericTesterWriter(GenericTesterWriter.SyncMode.None);
+
+    private static AOIParserEngine.DataRecord board(String serialNumber, String status) {
+        AOIParserEngine.DataRecord r = new AOIParserEngine.DataRecord();
+        r.serialNumber = serialNumber;
+        r.status = status;
+        r.program = "MAIN_TOP";
+        r.workOrderDetail = "WO1";
+        r.operationId = "OP-TOP";
+        r.sequence = "1";
+        return r;
+    }
+
+    private List<Path> files() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.sorted().toList();
+        }
+    }
+
+    @Test
+    void retestInTheSameSecondKeepsBothResults() throws Exception {
+        List<Path> written;
+        try (GenericTesterWriter.Batch batch = writer.newBatch()) {
+            batch.add(dir, board("SN1", "FAIL"), "2024-01-01T10:00:00", "30");
+            batch.add(dir, board("SN1", "PASS"), "2024-01-01T10:00:01", "30");
+            written = batch.commit();
+        }
+
+        assertEquals(2, new HashSet<>(written).size());
+        assertEquals(written.stream().sorted().toList(), files());
+        assertTrue(Files.readString(written.get(0)).contains("StatusCode=\"FAIL\""));
+        assertTrue(Files.readString(written.get(1)).contains("StatusCode=\"PASS\""));
+        assertTrue(written.get(1).getFileName().toString().endsWith("_GenericTester_1.xml"), written.toString());
+    }
+
+    @Test
+    void concurrentWritersOfOneSerialNeverOverwriteEachOther() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Path>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                String status = "S" + i;
+                results.add(threads.submit(() -> writer.write(dir, board("SN1", status), "2024-01-01T10:00:00", "30")));
+            }
+            Set<String> statuses = new HashSet<>();
+            for (Future<Path> result : results) {
+                String xml = Files.readString(result.get());
+                statuses.add(xml.substring(xml.indexOf("StatusCode=\"") + 12, xml.indexOf("\" BoardTestStart")));
+            }
+            assertEquals(64, statuses.size());
+        } finally {
+            threads.shutdown();
+        }
+        // No temporary files left behind
+        assertEquals(64, files().size());
+        for (Path file : files()) {
+            assertTrue(file.getFileName().toString().endsWith(".xml"), file.toString());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+    private static final long HOUR_NANOS = 3_600_000_000_000L;
+
+    @Test
+    void reportedValueIsTheBucketBoundWithinAQuarterOfTheTrueValue() {
+        for (long micros = 1; micros < 10_000_000; micros = micros * 9 / 8 + 1) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(micros * 1000);
+            // Keeps the maximum from capping the median
+            histogram.record(HOUR_NANOS);
+
+            double reported = histogram.quantileSeconds(0.5) * 1e6;
+            assertTrue(reported > micros, micros + " us reported as " + reported);
+            assertTrue(reported <= Math.max(micros + 1, micros * 1.25), micros + " us reported as " + reported);
+        }
+    }
+
+    @Test
+    void quantileNeverExceedsTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(4_100_000);
+
+        assertEquals(0.0041, histogram.quantileSeconds(0.99), 1e-12);
+        assertEquals(4.1, histogram.getMaxMillis(), 1e-12);
+    }
+
+    @Test
+    void quantilesFollowTheRecordedRanks() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1_000_000);
+        }
+        histogram.record(HOUR_NANOS);
+
+        assertEquals(100, histogram.getCount());
+        assertTrue(histogram.getP50Millis() >= 1 && histogram.getP50Millis() <= 1.25);
+        assertTrue(histogram.getP99Millis() >= 1 && histogram.getP99Millis() <= 1.25);
+        assertEquals(HOUR_NANOS / 1e9, histogram.quantileSeconds(1.0), 1e-9);
+    }
+
+    @Test
+    void emptyNegativeAndHugeValuesAreHandled() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.quantileSeconds(0.5));
+        assertEquals(0, histogram.getMeanMillis());
+
+        histogram.record(-5);
+        assertEquals(0, histogram.getMaxMillis());
+        // Beyond the last bucket, so reported at its bound of about 51 days
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals((1L << 42) / 1e6, histogram.quantileSeconds(1.0), 1e-6);
+    }
+}
@@ -0,0 +1,153 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static parser.ValorStubDriver.serial;
+
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LookupBatcherTest {
+
+    private ValorStubDriver database;
+    private SqlConnectionPool pool;
+    private CircuitBreaker breaker;
+    private LookupBatcher batcher;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        database = ValorStubDriver.register();
+        database.reset();
+        pool = new SqlConnectionPool(ValorStubDriver.URL, 2, 60_000, 1, 1000, 1000, message -> { });
+        breaker = new CircuitBreaker("Database", 5, 1000, 1000, message -> { });
+        batcher = new LookupBatcher(pool, new SerialLookupCache(1000, 60_000, false), breaker, 4, 60_000,
+                message -> { });
+    }
+
+    @AfterEach
+    void tearDown() {
+        batcher.close();
+        pool.close();
+    }
+
+    @Test
+    void panelLargerThanBatchGoesOutInOneQuery() throws Exception {
+        List<CompletableFuture<SerialLookupCache.Lookup>> lookups = new ArrayList<>();
+        lookups.add(batcher.submit(serial(1)));
+        lookups.add(batcher.submit(serial(2)));
+        List<String> panel = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            panel.add(serial(100 + i));
+        }
+        lookups.addAll(batcher.submitAll(panel));
+        lookups.add(batcher.submit(serial(3)));
+        batcher.flush();
+
+        for (CompletableFuture<SerialLookupCache.Lookup> lookup : lookups) {
+            assertEquals("WO0", lookup.get(5, TimeUnit.SECONDS).orderNumber);
+        }
+        int queriesWithPanel = 0;
+        for (Set<String> query : new ArrayList<>(database.queries)) {
+            if (query.contains(panel.get(0))) {
+                queriesWithPanel++;
+                assertTrue(query.containsAll(panel), query.toString());
+            }
+        }
+        assertEquals(1, queriesWithPanel);
+    }
+
+    @Test
+    void rejectedBatchIsRetriedSoOnlyTheBadSerialFails() throws Exception {
+        database.onQuery = serialNumbers -> serialNumbers.contains("BAD")
+                ? new SQLDataException("Conversion failed", "22018") : null;
+        List<CompletableFuture<SerialLookupCache.Lookup>> lookups = batcher.submitAll(List.of(serial(1), "BAD", serial(1001)));
+        batcher.flush();
+
+        assertEquals("WO0", lookups.get(0).get(5, TimeUnit.SECONDS).orderNumber);
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> lookups.get(1).get(5, TimeUnit.SECONDS));
+        assertFalse(SqlConnectionPool.isConnectionFailure((SQLException) error.getCause()));
+        assertEquals("WO1", lookups.get(2).get(5, TimeUnit.SECONDS).orderNumber);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void connectionFailureFailsTheBatchAndCountsAgainstTheBreaker() throws Exception {
+        database.onQuery = serialNumbers -> new SQLException("Connection reset", "08S01");
+        for (int attempt = 0; attempt < 5; attempt++) {
+            List<CompletableFuture<SerialLookupCache.Lookup>> lookups = batcher.submitAll(List.of(serial(1), serial(2)));
+            batcher.flush();
+            for (CompletableFuture<SerialLookupCache.Lookup> lookup : lookups) {
+                ExecutionException error = assertThrows(ExecutionException.class,
+                        () -> lookup.get(5, TimeUnit.SECONDS));
+                assertTrue(SqlConnectionPool.isConnectionFailure((SQLException) error.getCause()));
+            }
+        }
+        // No per-row retries for a connection failure
+        assertEquals(5, database.queries.size());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void singleBoardsAreCappedAtBatchSize() throws Exception {
+        List<CompletableFuture<SerialLookupCache.Lookup>> lookups = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            lookups.add(batcher.submit(serial(i)));
+        }
+        batcher.flush();
+
+        for (CompletableFuture<SerialLookupCache.Lookup> lookup : lookups) {
+            assertEquals("WO0", lookup.get(5, TimeUnit.SECONDS).orderNumber);
+        }
+        for (Set<String> query : new ArrayList<>(database.queries)) {
+            assertTrue(query.size() <= 4, query.toString());
+        }
+    }
+
+    @Test
+    void orderPrefetchDoesNotHoldUpTheBatch() throws Exception {
+        CountDownLatch prefetchStarted = new CountDownLatch(1);
+        CountDownLatch releasePrefetch = new CountDownLatch(1);
+        // The order query has the OrderID as its only parameter
+        database.onQuery = params -> {
+            if (params.equals(Set.of("0"))) {
+                prefetchStarted.countDown();
+                try {
+                    releasePrefetch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return null;
+        };
+        SerialLookupCache cache = new SerialLookupCache(10_000, 60_000, true);
+        try (LookupBatcher prefetching = new LookupBatcher(pool, cache, breaker, 4, 60_000, message -> { })) {
+            CompletableFuture<SerialLookupCache.Lookup> lookup = prefetching.submit(serial(1));
+            prefetching.flush();
+
+            assertEquals("WO0", lookup.get(5, TimeUnit.SECONDS).orderNumber);
+            assertTrue(prefetchStarted.await(5, TimeUnit.SECONDS));
+            releasePrefetch.countDown();
+
+            // The rest of the order is answered from memory once the prefetch is in
+            long deadline = System.currentTimeMillis() + 5000;
+            while (cache.getPrefetches() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("WO0", cache.getIfPresent(serial(999)).orderNumber);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ProcessingPipelineTest {
+
+    @Test
+    void failedBatchGoesToFailureHandlerAndLaterJobsStillPass() throws Exception {
+        List<Integer> failed = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> done = Collections.synchronizedList(new ArrayList<>());
+        ProcessingPipeline<Integer> pipeline = new ProcessingPipeline<Integer>(false, message -> { }, failed::addAll)
+                .stage("first", 1, 16, 1, jobs -> {
+                    if (jobs.contains(3)) {
+                        throw new IllegalStateException("bad job");
+                    }
+                    return jobs;
+                })
+                .stage("last", 2, 16, 4, jobs -> {
+                    done.addAll(jobs);
+                    return jobs;
+                });
+        pipeline.start();
+        for (int i = 0; i < 10; i++) {
+            pipeline.submit(i);
+        }
+        pipeline.shutdown(5000);
+
+        assertEquals(List.of(3), failed);
+        List<Integer> passed = new ArrayList<>(done);
+        Collections.sort(passed);
+        assertEquals(List.of(0, 1, 2, 4, 5, 6, 7, 8, 9), passed);
+    }
+
+    @Test
+    void resizedStageKeepsEveryJob() throws Exception {
+        List<Integer> done = Collections.synchronizedList(new ArrayList<>());
+        ProcessingPipeline<Integer> pipeline = new ProcessingPipeline<Integer>(false, message -> { }, jobs -> { })
+                .stage("work", 4, 8, 2, jobs -> jobs)
+                .stage("collect", 1, 8, 8, jobs -> {
+                    done.addAll(jobs);
+                    return jobs;
+                });
+        pipeline.start();
+        for (int i = 0; i < 500; i++) {
+            if (i == 100) {
+                pipeline.resize("work", 1, 1);
+            } else if (i == 300) {
+                pipeline.resize("work", 3, 4);
+            }
+            pipeline.submit(i);
+        }
+        pipeline.shutdown(5000);
+
+        assertEquals(500, done.size());
+        assertEquals(500, new HashSet<>(done).size());
+    }
+}
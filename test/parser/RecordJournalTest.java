@@ -0,0 +1,171 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RecordJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<String> log = new ArrayList<>();
+
+    private static RecordJournal.Entry entry(String serialNumber) {
+        AOIParserEngine.DataRecord r = new AOIParserEngine.DataRecord();
+        r.serialNumber = serialNumber;
+        r.status = "PASS";
+        r.program = "MAIN_TOP";
+        r.side = "TOP";
+        r.operationId = "OP-TOP";
+        return new RecordJournal.Entry(r, "2024-01-01T10:00:00", serialNumber + ".csv", "Line1");
+    }
+
+    private static List<RecordJournal.Entry> entries(String... serialNumbers) {
+        List<RecordJournal.Entry> entries = new ArrayList<>();
+        for (String serialNumber : serialNumbers) {
+            entries.add(entry(serialNumber));
+        }
+        return entries;
+    }
+
+    private static List<String> serialNumbers(List<RecordJournal.Entry> entries) {
+        List<String> serialNumbers = new ArrayList<>();
+        for (RecordJournal.Entry entry : entries) {
+            serialNumbers.add(entry.record.serialNumber);
+        }
+        return serialNumbers;
+    }
+
+    private Path onlySegment() throws Exception {
+        try (var files = Files.list(dir)) {
+            return files.filter(p -> p.toString().endsWith(".log") && sizeOf(p) > 0).findFirst().orElseThrow();
+        }
+    }
+
+    private static long sizeOf(Path p) {
+        try {
+            return Files.size(p);
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    @Test
+    void entriesRoundTripWithEscapedFields() throws Exception {
+        RecordJournal.Entry tricky = entry("SN\t1\\n");
+        tricky.record.side = null;
+        try (RecordJournal journal = new RecordJournal(dir, 1 << 20, log::add)) {
+            journal.append(List.of(tricky));
+            RecordJournal.Entry read = journal.readBatch(10).get(0);
+
+            assertEquals("SN\t1\\n", read.record.serialNumber);
+            assertNull(read.record.side);
+            assertEquals("OP-TOP", read.record.operationId);
+            assertEquals("2024-01-01T10:00:00", read.dtTime);
+            assertEquals("Line1", read.machine);
+        }
+    }
+
+    @Test
+    void readingDoesNotConsumeButMarkDoneSurvivesReopening() throws Exception {
+        try (RecordJournal journal = new RecordJournal(dir, 1 << 20, log::add)) {
+            journal.append(entries("SN1", "SN2", "SN3"));
+            List<RecordJournal.Entry> batch = journal.readBatch(2);
+            assertEquals(List.of("SN1", "SN2"), serialNumbers(batch));
+            assertEquals(List.of("SN1", "SN2"), serialNumbers(journal.readBatch(2)));
+
+            journal.markDone(batch.get(0));
+            assertEquals(2, journal.pending());
+        }
+        try (RecordJournal journal = new RecordJournal(dir, 1 << 20, log::add)) {
+            assertEquals(2, journal.pending());
+            assertEquals(List.of("SN2", "SN3"), serialNumbers(journal.readBatch(10)));
+        }
+    }
+
+    @Test
+    void corruptRecordIsSkipped() throws Exception {
+        try (RecordJournal journal = new RecordJournal(dir, 1 << 20, log::add)) {
+            journal.append(entries("SN1", "SN2", "SN3"));
+        }
+        Path segment = onlySegment();
+        String content = new String(Files.readAllBytes(segment), StandardCharsets.UTF_8);
+        Files.write(segment, content.replace("SN2", "SX2").getBytes(StandardCharsets.UTF_8));
+
+        try (RecordJournal journal = new RecordJournal(dir, 1 << 20, log::add)) {
+            // The corrupt record is only found once the ones before it are done
+            List<RecordJournal.Entry> first = journal.readBatch(10);
+            assertEquals(List.of("SN1"), serialNumbers(first));
+            journal.markDone(first.get(0));
+
+            assertEquals(List.of("SN3"), serialNumbers(journal.readBatch(10)));
+            assertEquals(1, journal.pending());
+        }
+        assertTrue(log.stream().anyMatch(m -> m.contains("corrupt")), log.toString());
+    }
+
+    @Test
+    void recordWithoutMachineIsRejected() throws Exception {
+        RecordJournal.Entry machineless = entry("SN2");
+        try (RecordJournal journal = new RecordJournal(dir, 1 << 20, log::add)) {
+            journal.append(List.of(entry("SN1"),
+                    new RecordJournal.Entry(machineless.record, machineless.dtTime, machineless.sourceFile, null),
+                    entry("SN3")));
+        }
+
+        try (RecordJournal journal = new RecordJournal(dir, 1 << 20, log::add)) {
+            List<RecordJournal.Entry> first = journal.readBatch(10);
+            assertEquals(List.of("SN1"), serialNumbers(first));
+            journal.markDone(first.get(0));
+
+            // Not handed to some machine; its CRC is fine, but it is skipped like a corrupt one
+            assertEquals(List.of("SN3"), serialNumbers(journal.readBatch(10)));
+        }
+    }
+
+    @Test
+    void tornWriteAtEndOfOldSegmentIsDiscarded() throws Exception {
+        try (RecordJournal journal = new RecordJournal(dir, 1 << 20, log::add)) {
+            journal.append(entries("SN1", "SN2"));
+        }
+        Path segment = onlySegment();
+        Files.write(segment, "2\tSN3\tPA".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (RecordJournal journal = new RecordJournal(dir, 1 << 20, log::add)) {
+            List<RecordJournal.Entry> batch = journal.readBatch(10);
+            assertEquals(List.of("SN1", "SN2"), serialNumbers(batch));
+            journal.markDone(batch.get(0));
+            journal.markDone(batch.get(1));
+
+            assertTrue(journal.readBatch(10).isEmpty());
+            assertEquals(0, journal.pending());
+        }
+        assertTrue(log.stream().anyMatch(m -> m.contains("incomplete")), log.toString());
+    }
+
+    @Test
+    void replayedSegmentsAreDeleted() throws Exception {
+        try (RecordJournal journal = new RecordJournal(dir, 1 << 20, log::add)) {
+            journal.append(entries("SN1"));
+        }
+        try (RecordJournal journal = new RecordJournal(dir, 1 << 20, log::add)) {
+            journal.markDone(journal.readBatch(10).get(0));
+            assertTrue(journal.readBatch(10).isEmpty());
+        }
+        try (var files = Files.list(dir)) {
+            // Only this run's empty segment is left
+            assertEquals(1, files.count());
+        }
+    }
+}
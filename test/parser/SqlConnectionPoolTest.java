@@ -0,0 +1,43 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SqlConnectionPoolTest {
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ValorStubDriver.register().reset();
+    }
+
+    private static SqlConnectionPool pool() {
+        return new SqlConnectionPool(ValorStubDriver.URL, 2, 60_000, 1, 1000, 1000, message -> { });
+    }
+
+    @Test
+    void idleRetiredPoolClosesAtOnce() throws Exception {
+        SqlConnectionPool pool = pool();
+        pool.borrow().close();
+
+        pool.retire();
+
+        assertTrue(pool.isClosed());
+    }
+
+    @Test
+    void retiredPoolClosesOnceTheLastConnectionIsBack() throws Exception {
+        SqlConnectionPool pool = pool();
+        SqlConnectionPool.PooledConnection first = pool.borrow();
+        SqlConnectionPool.PooledConnection second = pool.borrow();
+
+        pool.retire();
+        first.close();
+        assertFalse(pool.isClosed());
+
+        second.close();
+        assertTrue(pool.isClosed());
+    }
+}
@@ -0,0 +1,150 @@
+package parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class XmlAggregatorTest {
+
+    @TempDir
+    Path dir;
+
+    private MachineProfile machine;
+    private final BlockingQueue<Written> written = new LinkedBlockingQueue<>();
+    private final GenericTesterWriter writer = new GenericTesterWriter(GenericTesterWriter.SyncMode.None);
+
+    private static class Written {
+        final List<String> items;
+        final Path xmlFile;
+        final IOException error;
+        final long at = System.currentTimeMillis();
+
+        Written(List<String> items, Path xmlFile, IOException error) {
+            this.items = items;
+            this.xmlFile = xmlFile;
+            this.error = error;
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Files.createDirectories(dir.resolve("out"));
+        Properties prop = new Properties();
+        prop.setProperty("MachineName", "Line1");
+        prop.setProperty("InputFolderPath", dir.resolve("in").toString());
+        prop.setProperty("OutputPath", dir.resolve("out").toString());
+        prop.setProperty("OperationDuration", "30");
+        machine = MachineProfile.fromProperties(prop).get(0);
+    }
+
+    private XmlAggregator<String> aggregator(int maxBoards, long windowMillis) {
+        return new XmlAggregator<>(writer, maxBoards, windowMillis,
+                (items, xmlFile, error) -> written.add(new Written(new ArrayList<>(items), xmlFile, error)),
+                message -> { });
+    }
+
+    private static List<AOIParserEngine.DataRecord> boards(String workOrder, String... serialNumbers) {
+        List<AOIParserEngine.DataRecord> boards = new ArrayList<>();
+        for (String serialNumber : serialNumbers) {
+            AOIParserEngine.DataRecord r = new AOIParserEngine.DataRecord();
+            r.serialNumber = serialNumber;
+            r.status = "PASS";
+            r.program = "MAIN_TOP";
+            r.workOrderDetail = workOrder;
+            r.operationId = "OP-TOP";
+            r.sequence = "1";
+            boards.add(r);
+        }
+        return boards;
+    }
+
+    private static int boardCount(Path xmlFile) throws IOException {
+        String xml = Files.readString(xmlFile);
+        return xml.split("BarcodeId=", -1).length - 1;
+    }
+
+    @Test
+    void fullGroupIsWrittenWithoutWaitingForTheWindow() throws Exception {
+        try (XmlAggregator<String> aggregator = aggregator(3, 60_000)) {
+            for (int i = 1; i <= 3; i++) {
+                assertTrue(aggregator.add(machine, boards("WO1", "SN" + i), "2024-01-01T10:00:00", "job" + i));
+            }
+
+            // Well within the one-minute window
+            Written group = written.poll(5, TimeUnit.SECONDS);
+            assertNotNull(group);
+            assertNull(group.error);
+            assertEquals(List.of("job1", "job2", "job3"), group.items);
+            assertEquals(3, boardCount(group.xmlFile));
+        }
+    }
+
+    @Test
+    void partGroupIsWrittenOnceItsWindowHasPassed() throws Exception {
+        try (XmlAggregator<String> aggregator = aggregator(100, 300)) {
+            long start = System.currentTimeMillis();
+            aggregator.add(machine, boards("WO1", "SN1"), "2024-01-01T10:00:00", "job1");
+            aggregator.add(machine, boards("WO1", "SN2"), "2024-01-01T10:00:01", "job2");
+
+            Written group = written.poll(5, TimeUnit.SECONDS);
+            assertNotNull(group);
+            assertTrue(group.at - start >= 300, "written after " + (group.at - start) + " ms");
+            assertEquals(List.of("job1", "job2"), group.items);
+            assertEquals(2, boardCount(group.xmlFile));
+        }
+    }
+
+    @Test
+    void differentWorkOrdersGoToSeparateFiles() throws Exception {
+        try (XmlAggregator<String> aggregator = aggregator(100, 60_000)) {
+            aggregator.add(machine, boards("WO1", "SN1"), "2024-01-01T10:00:00", "job1");
+            aggregator.add(machine, boards("WO2", "SN2"), "2024-01-01T10:00:00", "job2");
+            aggregator.add(machine, boards("WO1", "SN3"), "2024-01-01T10:00:00", "job3");
+        }
+
+        // Closing writes whatever is still open
+        List<Written> groups = new ArrayList<>();
+        written.drainTo(groups);
+        assertEquals(2, groups.size());
+        assertEquals(List.of("job1", "job3"), groups.get(0).items);
+        assertEquals(List.of("job2"), groups.get(1).items);
+    }
+
+    @Test
+    void panelIsNeverSplitAcrossFiles() throws Exception {
+        try (XmlAggregator<String> aggregator = aggregator(2, 60_000)) {
+            aggregator.add(machine, boards("WO1", "SN1"), "2024-01-01T10:00:00", "board");
+            aggregator.add(machine, boards("WO1", "P1", "P2", "P3"), "2024-01-01T10:00:00", "panel");
+
+            Written group = written.poll(5, TimeUnit.SECONDS);
+            assertNotNull(group);
+            assertEquals(List.of("board", "panel"), group.items);
+            assertEquals(4, boardCount(group.xmlFile));
+        }
+    }
+
+    @Test
+    void closedAggregatorLeavesBoardsToTheCaller() {
+        XmlAggregator<String> aggregator = aggregator(10, 60_000);
+        aggregator.close();
+
+        assertFalse(aggregator.add(machine, boards("WO1", "SN1"), "2024-01-01T10:00:00", "job1"));
+        assertTrue(written.isEmpty());
+    }
+}